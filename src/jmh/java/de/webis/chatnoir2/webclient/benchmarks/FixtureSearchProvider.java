@@ -0,0 +1,106 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.benchmarks;
+
+import de.webis.chatnoir2.webclient.search.SearchProvider;
+import de.webis.chatnoir2.webclient.search.SearchResultBuilder;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Search provider which serves a recorded Elasticsearch response instead of querying a cluster.
+ */
+public class FixtureSearchProvider extends SearchProvider
+{
+    private final SearchResponse mResponse;
+
+    /**
+     * @param response recorded search response
+     */
+    public FixtureSearchProvider(SearchResponse response)
+    {
+        super(null);
+        mResponse = response;
+    }
+
+    /**
+     * Load a recorded search response from the <tt>fixtures</tt> resource directory.
+     *
+     * @param name fixture file name
+     * @return parsed search response
+     * @throws IOException if fixture cannot be read or parsed
+     */
+    public static SearchResponse loadResponse(String name) throws IOException
+    {
+        try (InputStream in = FixtureSearchProvider.class.getResourceAsStream("/fixtures/" + name)) {
+            if (null == in) {
+                throw new FileNotFoundException("No such fixture: " + name);
+            }
+            try (XContentParser parser = JsonXContent.jsonXContent.createParser(
+                    NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, in)) {
+                return SearchResponse.fromXContent(parser);
+            }
+        }
+    }
+
+    @Override
+    public void doSearch(String query, int from, int size)
+    {
+    }
+
+    @Override
+    public void doSearchAsync(String query, int from, int size, ActionListener<SearchResponse> listener)
+    {
+        listener.onResponse(mResponse);
+    }
+
+    @Override
+    protected SearchResponse getResponse()
+    {
+        return mResponse;
+    }
+
+    @Override
+    public String truncateSnippet(String snippet, int numCharacters)
+    {
+        return super.truncateSnippet(snippet, numCharacters);
+    }
+
+    @Override
+    public List<SearchResultBuilder.SearchResult> groupResults(List<SearchResultBuilder.SearchResult> results)
+    {
+        return super.groupResults(results);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.benchmarks;
+
+import de.webis.chatnoir2.webclient.search.SearchResultBuilder;
+import de.webis.chatnoir2.webclient.util.TextCleanser;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the conversion of Elasticsearch search hits to search results.
+ * Run with <tt>gradle jmh</tt>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchResultPipelineBenchmark
+{
+    /**
+     * Recorded search response to convert.
+     */
+    @Param({"search-response-en.json"})
+    public String fixture;
+
+    private FixtureSearchProvider mProvider;
+    private List<SearchResultBuilder.SearchResult> mResults;
+    private List<String> mSnippets;
+    private List<String> mBodies;
+    private List<String> mIndices;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        final SearchResponse response = FixtureSearchProvider.loadResponse(fixture);
+        mProvider = new FixtureSearchProvider(response);
+        mResults = mProvider.getResults();
+
+        mSnippets = new ArrayList<>();
+        mBodies = new ArrayList<>();
+        mIndices = new ArrayList<>();
+        for (SearchHit hit : response.getHits()) {
+            for (HighlightField field : hit.getHighlightFields().values()) {
+                for (Text fragment : field.fragments()) {
+                    mSnippets.add(fragment.string());
+                }
+            }
+            mBodies.add((String) hit.getSourceAsMap().get("body_lang.en"));
+            mIndices.add(hit.getIndex());
+        }
+    }
+
+    /**
+     * Full conversion of all hits in the response to search results.
+     */
+    @Benchmark
+    public List<SearchResultBuilder.SearchResult> getResults()
+    {
+        return mProvider.getResults();
+    }
+
+    /**
+     * Text cleansing of all highlighted snippet fragments.
+     */
+    @Benchmark
+    public void cleanseAll(Blackhole bh)
+    {
+        for (String snippet : mSnippets) {
+            bh.consume(TextCleanser.cleanseAll(snippet, true));
+        }
+    }
+
+    /**
+     * Truncation of full document bodies to snippet length.
+     */
+    @Benchmark
+    public void truncateSnippet(Blackhole bh)
+    {
+        for (String body : mBodies) {
+            bh.consume(mProvider.truncateSnippet(body, mProvider.getSnippetLength()));
+        }
+    }
+
+    /**
+     * Grouping of converted search results by host name.
+     */
+    @Benchmark
+    public List<SearchResultBuilder.SearchResult> groupResults()
+    {
+        return mProvider.groupResults(mResults);
+    }
+
+    /**
+     * Index name resolution, which looks up configured index aliases.
+     */
+    @Benchmark
+    public void resultIndex(Blackhole bh)
+    {
+        for (String index : mIndices) {
+            bh.consume(new SearchResultBuilder().index(index));
+        }
+    }
+}
@@ -28,6 +28,8 @@ package de.webis.chatnoir2.webclient;
 import de.webis.chatnoir2.webclient.api.ApiBootstrap;
 import de.webis.chatnoir2.webclient.api.ApiModuleBase;
 import de.webis.chatnoir2.webclient.api.exceptions.NotImplementedException;
+import de.webis.chatnoir2.webclient.api.v1.ApiModuleV1;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -38,7 +40,7 @@ import java.io.IOException;
 /**
  * REST API Servlet for ChatNoir 2.
  */
-@WebServlet(ApiServlet.ROUTE)
+@WebServlet(value = ApiServlet.ROUTE, asyncSupported = true)
 public class ApiServlet extends ChatNoirServlet
 {
     /**
@@ -51,6 +53,14 @@ public class ApiServlet extends ChatNoirServlet
     {
         ApiModuleBase apiHandler = ApiBootstrap.bootstrapApiModule(request, response);
 
+        // use the canonical module name, so aliases are counted as the same endpoint
+        final ApiModuleV1 moduleAnnotation = apiHandler.getClass().getAnnotation(ApiModuleV1.class);
+        if (null != moduleAnnotation && moduleAnnotation.value().length > 0) {
+            RequestTrace.get(request).setEndpoint("/api/v1/" + moduleAnnotation.value()[0]);
+        } else {
+            RequestTrace.get(request).setEndpoint(RequestTrace.ENDPOINT_OTHER);
+        }
+
         // remove cookie header
         response.setHeader("Set-Cookie", null);
 
@@ -66,7 +76,7 @@ public class ApiServlet extends ChatNoirServlet
                 break;
             case "OPTIONS":
                 doOptions(request, response);
-                response.getWriter().flush();
+                response.getOutputStream().flush();
                 break;
             default:
                 throw new NotImplementedException("Method not implemented");
@@ -59,12 +59,17 @@ public class CacheServlet extends ChatNoirServlet
 
     private static final String TEMPLATE_REDIRECT = "/templates/chatnoir2-cache-redirect.mustache";
 
+    @Override
+    protected String getEndpointName(HttpServletRequest request)
+    {
+        return ROUTE;
+    }
+
     @Override
     public void init() throws ServletException
     {
         super.init();
-        if (!MapFileReader.isInitialized())
-            MapFileReader.init();
+        MapFileReader.ensureInitialized();
     }
 
     /**
@@ -26,17 +26,29 @@
 package de.webis.chatnoir2.webclient;
 
 import de.webis.chatnoir2.webclient.auth.ChatNoirSessionDAO;
+import de.webis.chatnoir2.webclient.search.SearchProvider;
+import de.webis.chatnoir2.webclient.search.SimpleSearch;
 import de.webis.chatnoir2.webclient.util.Configured;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
 import org.apache.shiro.web.subject.WebSubject;
 import org.apache.shiro.web.util.WebUtils;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * Base servlet class for ChatNoir servlets.
@@ -46,6 +58,46 @@ import java.io.IOException;
  */
 public abstract class ChatNoirServlet extends HttpServlet
 {
+    /**
+     * Grace period in milliseconds on top of the Elasticsearch search timeout before
+     * an asynchronous request is aborted by the container.
+     */
+    private static final long ASYNC_TIMEOUT_GRACE = 5000;
+
+    /**
+     * Callback for processing search results after an asynchronous search has completed.
+     */
+    @FunctionalInterface
+    protected interface SearchCompletionHandler
+    {
+        /**
+         * Process the completed search and write the response.
+         *
+         * @param request HTTP request
+         * @param response HTTP response
+         */
+        void onSearchComplete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        RequestTrace.get(request).setEndpoint(getEndpointName(request));
+        super.service(request, response);
+    }
+
+    /**
+     * Get the endpoint name under which a request to this servlet is counted in the request metrics.
+     * Every endpoint name gets its own latency histogram, so names must come from a small fixed set.
+     *
+     * @param request HTTP request
+     * @return endpoint name, {@link RequestTrace#ENDPOINT_OTHER} by default
+     */
+    protected String getEndpointName(HttpServletRequest request)
+    {
+        return RequestTrace.ENDPOINT_OTHER;
+    }
+
     /**
      * Get request URI without the context path.
      *
@@ -101,6 +153,120 @@ public abstract class ChatNoirServlet extends HttpServlet
         searchProvider.getLogger(web ? "Web" : "Api").info(msg);
     }
 
+    /**
+     * Run a search asynchronously and release the current request thread while Elasticsearch
+     * is busy. Once the search has completed, the given handler will be invoked on a
+     * container thread with the current Shiro subject bound to it. The asynchronous request
+     * will be completed automatically after the handler has returned.
+     *
+     * @param request HTTP request
+     * @param response HTTP response
+     * @param searchProvider search provider to run the search with
+     * @param query search query
+     * @param from first result to return
+     * @param size number of results to return
+     * @param handler handler to invoke when the search has completed
+     */
+    protected void doSearchAsync(HttpServletRequest request, HttpServletResponse response, SearchProvider searchProvider,
+                                 String query, int from, int size, SearchCompletionHandler handler)
+    {
+        searchProvider.setTrace(RequestTrace.get(request));
+        this.<SearchResponse>doAsync(request, response,
+                listener -> searchProvider.doSearchAsync(query, from, size, listener), handler);
+    }
+
+    /**
+     * Run an asynchronous Elasticsearch operation and release the current request thread while
+     * Elasticsearch is busy. Once the operation has completed, the given handler will be invoked on a
+     * container thread with the current Shiro subject bound to it. The asynchronous request
+     * will be completed automatically after the handler has returned.
+     *
+     * @param request HTTP request
+     * @param response HTTP response
+     * @param operation operation to start, which has to notify the given listener when it has completed or failed
+     * @param handler handler to invoke when the operation has completed
+     * @param <T> operation result type
+     */
+    protected <T> void doAsync(HttpServletRequest request, HttpServletResponse response,
+                               Consumer<ActionListener<T>> operation, SearchCompletionHandler handler)
+    {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(SimpleSearch.SEARCH_TIMEOUT + ASYNC_TIMEOUT_GRACE);
+
+        // make sure the request is finished exactly once, no matter who comes first
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final Subject subject = SecurityUtils.getSubject();
+
+        asyncContext.addListener(new AsyncListener()
+        {
+            @Override
+            public void onTimeout(AsyncEvent event)
+            {
+                if (finished.compareAndSet(false, true)) {
+                    handleAsyncError(asyncContext, new ElasticsearchTimeoutException("Search timed out"));
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {}
+
+            @Override
+            public void onError(AsyncEvent event) {}
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {}
+        });
+
+        try {
+            operation.accept(ActionListener.wrap(
+                    result -> asyncContext.start(subject.associateWith(() -> {
+                        if (!finished.compareAndSet(false, true)) {
+                            return;
+                        }
+                        try {
+                            handler.onSearchComplete(
+                                    (HttpServletRequest) asyncContext.getRequest(),
+                                    (HttpServletResponse) asyncContext.getResponse());
+                        } catch (Throwable e) {
+                            handleAsyncError(asyncContext, e);
+                            return;
+                        }
+                        asyncContext.complete();
+                    })),
+                    e -> asyncContext.start(subject.associateWith(() -> {
+                        if (finished.compareAndSet(false, true)) {
+                            handleAsyncError(asyncContext, e);
+                        }
+                    }))));
+        } catch (Throwable e) {
+            // the listener is never notified if the operation fails before the request is sent
+            if (finished.compareAndSet(false, true)) {
+                handleAsyncError(asyncContext, e);
+            }
+        }
+    }
+
+    /**
+     * Handle an exception which occurred during asynchronous request processing.
+     * The default implementation logs the exception and dispatches to the error page.
+     * Implementations must make sure that the asynchronous request is either dispatched or completed.
+     *
+     * @param asyncContext context of the asynchronous request
+     * @param exception thrown exception
+     */
+    protected void handleAsyncError(AsyncContext asyncContext, Throwable exception)
+    {
+        Configured.getSysLogger().error("Internal server exception:", exception);
+        try {
+            ((HttpServletResponse) asyncContext.getResponse()).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            asyncContext.dispatch(ErrorServlet.ROUTE);
+        } catch (Throwable followUpException) {
+            Configured.getSysLogger().error(
+                    "Follow-up exception while handling exception:", followUpException);
+            asyncContext.complete();
+        }
+    }
+
     /**
      * Forward to an error page displaying the given HTTP status code and a user-readable error message.
      *
@@ -69,13 +69,19 @@ public class DocServlet extends ChatNoirServlet
     /**
      * Name of EH document cache.
      */
-    private static final String CACHE_NAME = DocServlet.class.getName() + "-0-docs";
+    public static final String CACHE_NAME = DocServlet.class.getName() + "-0-docs";
 
     /**
      * Default Mustache template.
      */
     private static final String TEMPLATE_INDEX = "/templates/chatnoir2-docs.mustache";
 
+    @Override
+    protected String getEndpointName(HttpServletRequest request)
+    {
+        return ROUTE;
+    }
+
     @Override
     protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException
     {
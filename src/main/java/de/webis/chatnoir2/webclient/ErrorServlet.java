@@ -26,6 +26,7 @@
 package de.webis.chatnoir2.webclient;
 
 import de.webis.chatnoir2.webclient.response.Renderer;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -38,7 +39,7 @@ import java.util.Map;
 /**
  * ChatNoir 2 Error page servlet.
  */
-@WebServlet(ErrorServlet.ROUTE)
+@WebServlet(value = ErrorServlet.ROUTE, asyncSupported = true)
 public class ErrorServlet extends ChatNoirServlet
 {
     /**
@@ -54,6 +55,12 @@ public class ErrorServlet extends ChatNoirServlet
     @Override
     protected void service(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException
     {
+        // keep the endpoint of the servlet which forwarded to this error page
+        final RequestTrace trace = RequestTrace.get(request);
+        if (null == trace.getEndpoint()) {
+            trace.setEndpoint(RequestTrace.ENDPOINT_OTHER);
+        }
+
         if (response.getStatus() == HttpServletResponse.SC_OK) {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
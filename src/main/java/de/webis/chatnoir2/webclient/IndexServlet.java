@@ -36,7 +36,7 @@ import de.webis.chatnoir2.webclient.response.Renderer;
 /**
  * Index Servlet for ChatNoir 2.
  */
-@WebServlet(IndexServlet.ROUTE)
+@WebServlet(value = IndexServlet.ROUTE, asyncSupported = true)
 public class IndexServlet extends ChatNoirServlet
 {
     /**
@@ -49,6 +49,13 @@ public class IndexServlet extends ChatNoirServlet
      */
     private static final String TEMPLATE_INDEX = "/templates/chatnoir2-index.mustache";
 
+    @Override
+    protected String getEndpointName(HttpServletRequest request)
+    {
+        // this is the default servlet, so everything else is a 404
+        return getStrippedRequestURI(request).equals(ROUTE) ? ROUTE : super.getEndpointName(request);
+    }
+
     /**
      * GET action for this servlet.
      *
@@ -33,8 +33,8 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.*;
 
-import de.webis.chatnoir2.webclient.resources.ConfigLoader;
 import de.webis.chatnoir2.webclient.response.Renderer;
+import de.webis.chatnoir2.webclient.search.IndexAliasRegistry;
 import de.webis.chatnoir2.webclient.search.SearchResultBuilder;
 import de.webis.chatnoir2.webclient.search.SimpleSearch;
 import de.webis.chatnoir2.webclient.util.Configured;
@@ -42,7 +42,7 @@ import de.webis.chatnoir2.webclient.util.Configured;
 /**
  * ChatNoir 2 main search servlet.
  */
-@WebServlet(SearchServlet.ROUTE)
+@WebServlet(value = SearchServlet.ROUTE, asyncSupported = true)
 public class SearchServlet extends ChatNoirServlet
 {
     /**
@@ -60,6 +60,12 @@ public class SearchServlet extends ChatNoirServlet
      */
     private int mResultsPerPage = 10;
 
+    @Override
+    protected String getEndpointName(HttpServletRequest request)
+    {
+        return ROUTE;
+    }
+
     /**
      * Initialize servlet.
      */
@@ -89,7 +95,6 @@ public class SearchServlet extends ChatNoirServlet
         final HashMap<String, Object> templateVars = new HashMap<>();
         templateVars.put("searchQuery", searchQueryString);
         templateVars.put("searchQueryUrlEnc", URLEncoder.encode(searchQueryString, "UTF-8"));
-        templateVars.put("queryString", request.getAttribute("javax.servlet.forward.query_string"));
 
         final SimpleSearch search = new SimpleSearch(indices);
 
@@ -101,33 +106,48 @@ public class SearchServlet extends ChatNoirServlet
             } catch (NumberFormatException ignored) { }
         }
 
+        // read forward attributes now, they may not be available anymore after the forward has returned
+        final Object forwardQueryString = request.getAttribute("javax.servlet.forward.query_string");
+        final Object forwardRequestUri = request.getAttribute("javax.servlet.forward.request_uri");
+        templateVars.put("queryString", forwardQueryString);
+
+        final int page = currentPage;
         final long startTime = System.nanoTime();
         search.setExplain(null != request.getParameter("explain"));
-        search.doSearch(searchQueryString, (currentPage - 1) * mResultsPerPage, mResultsPerPage);
-        final long elapsedTime = System.nanoTime() - startTime;
-        templateVars.put("queryTime", String.format("%.1fms", elapsedTime * 0.000001));
+        doSearchAsync(request, response, search, searchQueryString, (currentPage - 1) * mResultsPerPage, mResultsPerPage,
+                (asyncRequest, asyncResponse) -> {
+                    final long elapsedTime = System.nanoTime() - startTime;
+                    templateVars.put("queryTime", String.format("%.1fms", elapsedTime * 0.000001));
+                    renderResults(asyncRequest, asyncResponse, search, searchQueryString, page, forwardRequestUri, templateVars);
+                });
+    }
 
+    /**
+     * Render search engine result page after a search has completed.
+     *
+     * @param request HTTP request
+     * @param response HTTP response
+     * @param search completed search
+     * @param searchQueryString user query string
+     * @param currentPage requested result page
+     * @param forwardRequestUri original request URI before forwarding
+     * @param templateVars template variables
+     */
+    private void renderResults(final HttpServletRequest request, final HttpServletResponse response,
+                               final SimpleSearch search, final String searchQueryString, final int currentPage,
+                               final Object forwardRequestUri, final HashMap<String, Object> templateVars)
+            throws ServletException, IOException
+    {
         // list effective and allowed indices
         List<Map<String, Object>> allowedIndices = new ArrayList<>();
         String[] allowedArr = search.getAllowedIndices();
         List<String> effectiveArr = Arrays.asList(search.getEffectiveIndices());
 
         // get index display names
-        ConfigLoader.Config[] aliases = Configured.getConf().getArray("cluster.index_aliases");
+        final IndexAliasRegistry aliases = IndexAliasRegistry.getInstance();
         for (String allowed: allowedArr) {
             Map<String, Object> m = new HashMap<>();
-
-            for (ConfigLoader.Config c: aliases) {
-                if (!allowed.equals(c.getString("alias")) && !allowed.equals(c.getString("index"))) {
-                    continue;
-                }
-                String displayName = c.getString("display_name");
-                if (null != displayName) {
-                    m.put("displayName", displayName);
-                } else {
-                    m.put("displayName", allowed);
-                }
-            }
+            m.put("displayName", aliases.getDisplayNameOrName(allowed));
             m.put("name", allowed);
             m.put("selected", effectiveArr.contains(allowed));
             allowedIndices.add(m);
@@ -142,8 +162,8 @@ public class SearchServlet extends ChatNoirServlet
         // if user navigated past last page
         if (currentPage != currentPageCapped) {
             response.sendRedirect(String.format("%s?q=%s&p=%d",
-                    request.getAttribute("javax.servlet.forward.request_uri"),
-                    URLEncoder.encode(request.getParameter("q"), "UTF-8"),
+                    forwardRequestUri,
+                    URLEncoder.encode(searchQueryString, "UTF-8"),
                     currentPageCapped));
             return;
         }
@@ -157,10 +177,27 @@ public class SearchServlet extends ChatNoirServlet
         serpContext.setResults(search.getResults());
         serpContext.setPagination(numResults, mResultsPerPage, currentPage);
         serpContext.setTerminatedEarly(search.isTerminatedEarly());
+        serpContext.setPartialIndices(getDisplayNames(search.getPartialIndices()));
 
         Renderer.render(getServletContext(), request, response, TEMPLATE_INDEX, templateVars, serpContext);
     }
 
+    /**
+     * Get the display names of the given indices.
+     *
+     * @param indices index names
+     * @return display names (or index names if no display name is configured)
+     */
+    private static List<String> getDisplayNames(List<String> indices)
+    {
+        final List<String> displayNames = new ArrayList<>();
+        final IndexAliasRegistry aliases = IndexAliasRegistry.getInstance();
+        for (String index: indices) {
+            displayNames.add(aliases.getDisplayNameOrName(index));
+        }
+        return displayNames;
+    }
+
     /**
      * Mustache context class for search results page.
      */
@@ -192,6 +229,11 @@ public class SearchServlet extends ChatNoirServlet
          */
         private boolean mTerminatedEarly;
 
+        /**
+         * Display names of indices which did not return complete results.
+         */
+        private List<String> mPartialIndices = new ArrayList<>();
+
         /**
          * Mustache accessor for search results.
          * @return list of search results
@@ -212,7 +254,7 @@ public class SearchServlet extends ChatNoirServlet
             }
 
             // default pagination hard limit by Elasticsearch
-            final int maxPage = 10000 / mResultsPerPage;
+            final int maxPage = SimpleSearch.MAX_RESULT_WINDOW / mResultsPerPage;
 
             final List<HashMap<String, String>> pagination = new ArrayList<>();
             int numPages      = Math.min((int) Math.ceil((double) mNumResults / mResultsPerPage), maxPage);
@@ -286,6 +328,26 @@ public class SearchServlet extends ChatNoirServlet
             mTerminatedEarly = terminatedEarly;
         }
 
+        /**
+         * Mustache accessor for indices which did not return complete results.
+         * @return comma-separated list of index display names, null if results are complete
+         */
+        public String partialIndices()
+        {
+            if (mPartialIndices.isEmpty()) {
+                return null;
+            }
+            return String.join(", ", mPartialIndices);
+        }
+
+        /**
+         * Set indices which did not return complete results.
+         */
+        public void setPartialIndices(List<String> partialIndices)
+        {
+            mPartialIndices = partialIndices;
+        }
+
         /**
          * Mustache accessor returning true if search results have explanations.
          *
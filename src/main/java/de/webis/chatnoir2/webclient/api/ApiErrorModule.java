@@ -63,6 +63,11 @@ public class ApiErrorModule extends ApiModuleBase
         int errorCode = response.getStatus();
         final XContentBuilder errorObj;
 
+        // discard any partially streamed output which has not been sent yet
+        if (!response.isCommitted()) {
+            response.resetBuffer();
+        }
+
         String customMsg = (String) request.getAttribute(CUSTOM_ERROR_MSG_ATTR);
         if (null != customMsg) {
             errorObj = generateErrorResponse(request, errorCode, customMsg);
@@ -31,21 +31,26 @@ import de.webis.chatnoir2.webclient.api.exceptions.UserErrorException;
 import de.webis.chatnoir2.webclient.api.v1.ApiModuleV1;
 import de.webis.chatnoir2.webclient.auth.api.ApiKeyAuthenticationToken;
 import de.webis.chatnoir2.webclient.util.Configured;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 import org.apache.commons.lang.math.NumberUtils;
-import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 
 /**
  * Base class for ChatNoir REST API modules.
@@ -160,7 +165,11 @@ public abstract class ApiModuleBase extends ChatNoirServlet
     }
 
     /**
-     * Write API output to HTTP response with default status code 200.
+     * Write API output to HTTP response.
+     *
+     * Builders obtained from {@link #getResponseBuilder(HttpServletRequest, HttpServletResponse, int)}
+     * have already sent their status code and most of their content, so for these only the
+     * remaining buffered output is flushed and <tt>responseCode</tt> is ignored.
      *
      * @param response HTTP response object
      * @param responseBuilder response XContent builder
@@ -169,10 +178,48 @@ public abstract class ApiModuleBase extends ChatNoirServlet
      */
     public void writeResponse(final HttpServletResponse response, final XContentBuilder responseBuilder, final int responseCode) throws IOException
     {
+        if (responseBuilder.getOutputStream() instanceof ResponseOutputStream) {
+            // streaming builder, closing it flushes the generator, but leaves the servlet stream open
+            responseBuilder.close();
+            return;
+        }
+
         response.setStatus(responseCode);
         response.setContentType("application/json");
-        response.getWriter().write(Strings.toString(responseBuilder));
-        response.getWriter().flush();
+        BytesReference.bytes(responseBuilder).writeTo(response.getOutputStream());
+        response.getOutputStream().flush();
+    }
+
+    /**
+     * Write phase timings of the current request trace as <tt>timing</tt> object if
+     * the <tt>debug_timing</tt> parameter is set. Timings are in milliseconds and
+     * only include phases that were completed before this method was called.
+     *
+     * @param request HTTP request
+     * @param builder XContent builder to write to
+     */
+    protected void writeTimingInfo(final HttpServletRequest request, final XContentBuilder builder) throws IOException, ServletException
+    {
+        if (!isNestedParameterSet("debug_timing", request)) {
+            return;
+        }
+
+        final RequestTrace trace = RequestTrace.get(request);
+        builder.startObject("timing");
+        for (Map.Entry<String, Long> phase : trace.getPhases().entrySet()) {
+            builder.field(phase.getKey(), phase.getValue() / 1000000.0);
+        }
+        builder.field(RequestTrace.PHASE_TOTAL, trace.getElapsedTime() / 1000000.0);
+        builder.endObject();
+    }
+
+    @Override
+    protected void handleAsyncError(AsyncContext asyncContext, Throwable exception)
+    {
+        ApiBootstrap.handleException(exception,
+                (HttpServletRequest) asyncContext.getRequest(),
+                (HttpServletResponse) asyncContext.getResponse());
+        asyncContext.complete();
     }
 
     /**
@@ -194,7 +241,9 @@ public abstract class ApiModuleBase extends ChatNoirServlet
     public abstract void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException;
 
     /**
-     * Get configured response builder.
+     * Get configured response builder which buffers its output in memory.
+     * Use this only for small responses which may still be discarded before being written
+     * and prefer {@link #getResponseBuilder(HttpServletRequest, HttpServletResponse)} otherwise.
      *
      * @param request HTTP request
      * @return response builder
@@ -212,6 +261,44 @@ public abstract class ApiModuleBase extends ChatNoirServlet
         }
     }
 
+    /**
+     * Get configured response builder with status code 200 which writes directly to the HTTP response.
+     *
+     * @param request HTTP request
+     * @param response HTTP response
+     * @return response builder
+     * @throws IOException if response output stream cannot be opened
+     * @see #getResponseBuilder(HttpServletRequest, HttpServletResponse, int)
+     */
+    protected XContentBuilder getResponseBuilder(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        return getResponseBuilder(request, response, HttpServletResponse.SC_OK);
+    }
+
+    /**
+     * Get configured response builder which writes directly to the HTTP response.
+     * Status code and content type are set immediately, since the response will be committed
+     * as soon as the first output buffer is full. Call {@link #writeResponse(HttpServletResponse, XContentBuilder)}
+     * after building the response to flush any remaining output.
+     *
+     * @param request HTTP request
+     * @param response HTTP response
+     * @param statusCode HTTP response status code
+     * @return response builder
+     * @throws IOException if response output stream cannot be opened
+     */
+    protected XContentBuilder getResponseBuilder(HttpServletRequest request, HttpServletResponse response, int statusCode) throws IOException
+    {
+        response.setStatus(statusCode);
+        response.setContentType("application/json");
+
+        final OutputStream outputStream = new ResponseOutputStream(response.getOutputStream());
+        if (getPrettyPrint(request)) {
+            return XContentFactory.jsonBuilder(outputStream).prettyPrint();
+        }
+        return XContentFactory.jsonBuilder(outputStream);
+    }
+
     /**
      * Return and parse POST data payload.
      *
@@ -447,4 +534,29 @@ public abstract class ApiModuleBase extends ChatNoirServlet
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Output stream wrapper for streaming response builders, which passes through
+     * writes unchanged, but only flushes the servlet output stream on close.
+     * Closing the servlet output stream is left to the container.
+     */
+    private static class ResponseOutputStream extends FilterOutputStream
+    {
+        ResponseOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.flush();
+        }
+    }
+}
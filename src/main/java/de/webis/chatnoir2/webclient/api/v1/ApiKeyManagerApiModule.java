@@ -30,6 +30,7 @@ import de.webis.chatnoir2.webclient.api.ApiErrorModule;
 import de.webis.chatnoir2.webclient.api.ApiModuleBase;
 import de.webis.chatnoir2.webclient.auth.api.ApiTokenRealm;
 import de.webis.chatnoir2.webclient.model.api.ApiKeyModel;
+import de.webis.chatnoir2.webclient.model.api.ApiKeyPolicy;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.web.subject.WebSubject;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -57,9 +58,10 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
         // return user info
         WebSubject subject = (WebSubject) SecurityUtils.getSubject();
         ApiKeyModel userModel = ApiTokenRealm.getUserModel(subject);
-        assert userModel != null;
+        ApiKeyPolicy policy = ApiTokenRealm.getKeyPolicy(subject);
+        assert userModel != null && policy != null;
 
-        final XContentBuilder builder = getResponseBuilder(request);
+        final XContentBuilder builder = getResponseBuilder(request, response);
         builder.startObject();
         builder.field("apikey", userModel.getId());
 
@@ -73,7 +75,7 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
             if (key.equals("remote_hosts")) {
                 builder.startArray("remote_hosts");
                 // noinspection unchecked
-                for (InetAddress addr: userModel.getRemoteHosts()) {
+                for (InetAddress addr: policy.getRemoteHosts()) {
                     // InetAddress.toString() is too ugly
                     builder.value(addr.getHostAddress());
                 }
@@ -81,7 +83,7 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
                 continue;
             }
 
-            LocalDateTime expiry = userModel.getExpiryDate();
+            LocalDateTime expiry = policy.getExpiryDate();
             if (key.equals("expires") && null != expiry) {
                 // return actual expiry information from trust chain
                 builder.field("expires", expiry.format(DateTimeFormatter.ISO_DATE_TIME));
@@ -90,17 +92,16 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
 
             if (key.equals("revoked")) {
                 // return actual revocation information from trust chain
-                builder.field("revoked", userModel.isRevoked());
+                builder.field("revoked", policy.isRevoked());
                 continue;
             }
 
             if (key.equals("limits")) {
                 // print actual limits after resolution of null values
-                ApiKeyModel.ApiLimits limits = userModel.getApiLimits();
                 builder.startObject("limits")
-                    .field("day", limits.getDailyLimit())
-                    .field("week", limits.getWeeklyLimit())
-                    .field("month", limits.getMonthlyLimit())
+                    .field("day", policy.getDailyLimit())
+                    .field("week", policy.getWeeklyLimit())
+                    .field("month", policy.getMonthlyLimit())
                 .endObject();
                 continue;
             }
@@ -238,6 +239,7 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
                     "Error updating API key, please try again later");
             return false;
         }
+        ApiTokenRealm.invalidateApiKey(model.getId());
 
         return true;
     }
@@ -258,12 +260,12 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
         }
 
         // generate API response
-        XContentBuilder builder = getResponseBuilder(request)
+        XContentBuilder builder = getResponseBuilder(request, response, HttpServletResponse.SC_CREATED)
                 .startObject()
                 .field("message", "API key created")
                 .field("apikey", candiateModel.getId())
                 .endObject();
-        writeResponse(response, builder, HttpServletResponse.SC_CREATED);
+        writeResponse(response, builder);
     }
 
     private void actionUpdate(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
@@ -298,12 +300,12 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
         }
 
         // generate API response
-        XContentBuilder builder = getResponseBuilder(request)
+        XContentBuilder builder = getResponseBuilder(request, response)
                 .startObject()
                 .field("message", "API key updated")
                 .field("apikey", updateModel.getId())
                 .endObject();
-        writeResponse(response, builder, HttpServletResponse.SC_OK);
+        writeResponse(response, builder);
     }
 
     private void actionRevoke(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
@@ -339,13 +341,14 @@ public class ApiKeyManagerApiModule extends ApiModuleBase
                     "Error updating API key, please try again later");
             return;
         }
+        ApiTokenRealm.invalidateApiKey(model.getId());
 
         // generate API response
-        XContentBuilder builder = getResponseBuilder(request)
+        XContentBuilder builder = getResponseBuilder(request, response)
                 .startObject()
                 .field("message", "API key revoked")
                 .field("apikey", model.getId())
                 .endObject();
-        writeResponse(response, builder, HttpServletResponse.SC_OK);
+        writeResponse(response, builder);
     }
 }
@@ -0,0 +1,196 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.api.v1;
+
+import de.webis.chatnoir2.webclient.api.ApiBootstrap;
+import de.webis.chatnoir2.webclient.api.ApiErrorModule;
+import de.webis.chatnoir2.webclient.api.ApiModuleBase;
+import de.webis.chatnoir2.webclient.search.DocumentRetriever;
+import de.webis.chatnoir2.webclient.util.PlainTextRenderer;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ChatNoir API module for batch retrieval of full documents.
+ */
+@ApiModuleV1("_docs")
+public class DocsApiModule extends ApiModuleBase
+{
+    /**
+     * Maximum number of documents per request.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        final JSONArray ids = getTypedNestedParameter(JSONArray.class, "ids", request);
+        if (null == ids || ids.length() == 0) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, "No document IDs given");
+            return;
+        }
+        if (ids.length() > MAX_BATCH_SIZE) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST,
+                    String.format("Too many document IDs (maximum: %d)", MAX_BATCH_SIZE));
+            return;
+        }
+
+        final DocumentRetriever retriever = new DocumentRetriever(false, true);
+        String defaultIndex = getTypedNestedParameter(String.class, "index", request);
+        if (null == defaultIndex) {
+            final String[] effectiveIndices = retriever.getEffectiveIndices();
+            if (effectiveIndices.length == 0) {
+                ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, "No index given");
+                return;
+            }
+            defaultIndex = effectiveIndices[0];
+        } else if (!retriever.isIndexAllowed(defaultIndex)) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, "Invalid index");
+            return;
+        }
+        final boolean plainText = isNestedParameterSet("plain", request);
+
+        // group requested IDs by index
+        final Map<String, Set<String>> requested = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length(); ++i) {
+            String index = defaultIndex;
+            String id;
+            if (ids.get(i) instanceof JSONObject) {
+                final JSONObject o = ids.getJSONObject(i);
+                index = o.optString("index", defaultIndex);
+                id = o.optString("id", null);
+            } else {
+                id = ids.get(i).toString();
+            }
+            if (null != id && !id.trim().isEmpty()) {
+                requested.computeIfAbsent(index, k -> new LinkedHashSet<>()).add(id.trim());
+            }
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final Map<String, Map<String, DocumentRetriever.Document>> retrieved = new LinkedHashMap<>();
+        int numFound = 0;
+        for (Map.Entry<String, Set<String>> e : requested.entrySet()) {
+            final Map<String, DocumentRetriever.Document> docs = retrieveDocuments(retriever, e.getKey(), e.getValue());
+            retrieved.put(e.getKey(), docs);
+            numFound += docs.size();
+        }
+        final long elapsedTime = System.currentTimeMillis() - startTime;
+
+        final XContentBuilder builder = getResponseBuilder(request, response);
+        builder.startObject()
+            .startObject("meta")
+                .field("query_time", elapsedTime)
+                .field("total_results", numFound)
+            .endObject()
+            .startArray("results");
+                for (Map.Entry<String, Set<String>> e : requested.entrySet()) {
+                    final Map<String, DocumentRetriever.Document> docs = retrieved.get(e.getKey());
+                    for (String id : e.getValue()) {
+                        final DocumentRetriever.Document doc = docs.get(id);
+                        if (null == doc) {
+                            continue;
+                        }
+                        builder.startObject()
+                            .field("id", id)
+                            .field("uuid", doc.getDocUUID().toString())
+                            .field("index", e.getKey())
+                            .field("record_id", doc.getRecordID())
+                            .field("target_uri", doc.getTargetURI())
+                            .field("body", plainText ? PlainTextRenderer.getPlainText(doc.getBody()) : doc.getBody())
+                        .endObject();
+                    }
+                }
+            builder.endArray()
+            .startArray("not_found");
+                for (Map.Entry<String, Set<String>> e : requested.entrySet()) {
+                    final Map<String, DocumentRetriever.Document> docs = retrieved.get(e.getKey());
+                    for (String id : e.getValue()) {
+                        if (!docs.containsKey(id)) {
+                            builder.startObject()
+                                .field("id", id)
+                                .field("index", e.getKey())
+                            .endObject();
+                        }
+                    }
+                }
+            builder.endArray()
+        .endObject();
+
+        writeResponse(response, builder);
+    }
+
+    /**
+     * Retrieve documents from a single index. IDs are treated as document UUIDs first and
+     * IDs which could not be found that way are then looked up as Elasticsearch document IDs.
+     *
+     * @param retriever document retriever
+     * @param index index name
+     * @param ids document IDs
+     * @return map of retrieved documents by requested ID
+     */
+    private Map<String, DocumentRetriever.Document> retrieveDocuments(DocumentRetriever retriever, String index,
+                                                                      Collection<String> ids)
+    {
+        final Map<String, DocumentRetriever.Document> documents = new HashMap<>();
+        if (!retriever.isIndexAllowed(index)) {
+            return documents;
+        }
+
+        final Map<UUID, String> uuids = new LinkedHashMap<>();
+        for (String id : ids) {
+            try {
+                uuids.put(UUID.fromString(id), id);
+            } catch (IllegalArgumentException ignored) {}
+        }
+        for (Map.Entry<UUID, DocumentRetriever.Document> e : retriever.getByUUIDs(index, uuids.keySet()).entrySet()) {
+            documents.put(uuids.get(e.getKey()), e.getValue());
+        }
+
+        final List<String> remaining = new ArrayList<>();
+        for (String id : ids) {
+            if (!documents.containsKey(id)) {
+                remaining.add(id);
+            }
+        }
+        documents.putAll(retriever.getByIndexDocIDs(index, remaining));
+
+        return documents;
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        doGet(request, response);
+    }
+}
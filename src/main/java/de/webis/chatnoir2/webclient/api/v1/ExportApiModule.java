@@ -0,0 +1,138 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.api.v1;
+
+import de.webis.chatnoir2.webclient.api.ApiBootstrap;
+import de.webis.chatnoir2.webclient.api.ApiErrorModule;
+import de.webis.chatnoir2.webclient.api.ApiModuleBase;
+import de.webis.chatnoir2.webclient.resources.ConfigLoader;
+import de.webis.chatnoir2.webclient.search.SearchResultBuilder;
+import de.webis.chatnoir2.webclient.search.SimpleSearch;
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.json.JSONArray;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * ChatNoir API module for exporting large result sets of a simple search.
+ *
+ * Results are retrieved with a scroll in index order (i.e., unranked) and streamed
+ * to the client batch by batch as they come in.
+ */
+@ApiModuleV1("_export")
+public class ExportApiModule extends ApiModuleBase
+{
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        ConfigLoader.Config config = Configured.getConf();
+
+        String searchQueryString = getTypedNestedParameter(String.class, "query", request);
+        if (null == searchQueryString) {
+            searchQueryString = getTypedNestedParameter(String.class, "q", request);
+        }
+
+        if (null == searchQueryString || searchQueryString.trim().isEmpty()) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, "Empty search query");
+            return;
+        }
+
+        final JSONArray indices = getTypedNestedParameter(JSONArray.class, "index", request);
+        String[] indicesStr = null;
+        if (null != indices) {
+            indicesStr = new String[indices.length()];
+            for (int i = 0; i < indices.length(); ++i) {
+                indicesStr[i] = indices.getString(i);
+            }
+        }
+
+        final long maxResults = config.getLong("search.export.max_results", 100000L);
+        Long size = getTypedNestedParameter(Long.class, "size", request);
+        if (null == size || size < 1 || (maxResults > 0 && size > maxResults)) {
+            size = maxResults;
+        }
+
+        final SimpleSearch search = new SimpleSearch(indicesStr);
+        final long startTime = System.currentTimeMillis();
+        writeQueryLog(search, request, searchQueryString, false);
+
+        final XContentBuilder builder = getResponseBuilder(request, response);
+        builder.startObject()
+            .startObject("meta")
+                .array("indices", search.getEffectiveIndices())
+            .endObject()
+            .startArray("results");
+
+                final long exported;
+                try {
+                    exported = search.doExport(searchQueryString, config.getInteger("search.export.batch_size", 500), size, results -> {
+                        try {
+                            for (final SearchResultBuilder.SearchResult result : results) {
+                                builder.startObject()
+                                    .field("score", result.score())
+                                    .field("uuid", result.documentId())
+                                    .field("index", result.index())
+                                    .field("trec_id", result.trecId())
+                                    .field("target_hostname", result.targetHostname())
+                                    .field("target_uri", result.targetUri())
+                                    .field("page_rank", result.pageRank())
+                                    .field("spam_rank", result.spamRank())
+                                    .field("title", result.title())
+                                    .field("snippet", result.snippet())
+                                .endObject();
+                            }
+                            // send each batch to the client right away
+                            builder.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+
+            builder.endArray()
+            .startObject("stats")
+                .field("query_time", System.currentTimeMillis() - startTime)
+                .field("exported_results", exported)
+            .endObject()
+        .endObject();
+
+        writeResponse(response, builder);
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        doGet(request, response);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.api.v1;
+
+import de.webis.chatnoir2.webclient.DocServlet;
+import de.webis.chatnoir2.webclient.api.ApiBootstrap;
+import de.webis.chatnoir2.webclient.api.ApiErrorModule;
+import de.webis.chatnoir2.webclient.api.ApiModuleBase;
+import de.webis.chatnoir2.webclient.auth.ApiQuotaStore;
+import de.webis.chatnoir2.webclient.auth.ChatNoirWebSessionManager;
+import de.webis.chatnoir2.webclient.auth.api.ApiTokenRealm;
+import de.webis.chatnoir2.webclient.hdfs.MapFileReader;
+import de.webis.chatnoir2.webclient.hdfs.MapFileReaderPool;
+import de.webis.chatnoir2.webclient.search.SearchResultCache;
+import de.webis.chatnoir2.webclient.search.SimpleSearch;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Statistics;
+import org.HdrHistogram.Histogram;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.session.mgt.eis.CachingSessionDAO;
+import org.apache.shiro.web.mgt.DefaultWebSecurityManager;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * ChatNoir API module for exporting operational metrics, either as JSON or in the
+ * Prometheus text exposition format. Only available to users with the <tt>admin</tt> role.
+ */
+@ApiModuleV1("_metrics")
+public class MetricsApiModule extends ApiModuleBase
+{
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Exported latency histogram quantiles.
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * EHCache caches to export statistics for by metric label.
+     */
+    private static final Map<String, String> EH_CACHES = new LinkedHashMap<>();
+    static {
+        EH_CACHES.put("sessions", CachingSessionDAO.ACTIVE_SESSION_CACHE_NAME);
+        EH_CACHES.put("principals", ApiTokenRealm.PRINCIPALS_CACHE_NAME);
+        EH_CACHES.put("docs", DocServlet.CACHE_NAME);
+    }
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        if (!SecurityUtils.getSubject().hasRole("admin")) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_FORBIDDEN,
+                    "You are not allowed to access metrics");
+            return;
+        }
+
+        final String format = getTypedNestedParameter(String.class, "format", request);
+        final List<Sample> samples = collectSamples();
+
+        if ("prometheus".equals(format)) {
+            writePrometheusResponse(response, samples);
+            return;
+        } else if (null != format && !"json".equals(format)) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST,
+                    "Invalid format, must be one of 'json' or 'prometheus'");
+            return;
+        }
+
+        final XContentBuilder builder = getResponseBuilder(request, response);
+        builder.startObject()
+            .startObject("meta")
+                .field("uptime", ManagementFactory.getRuntimeMXBean().getUptime())
+            .endObject()
+            .startArray("metrics");
+                for (Sample sample : samples) {
+                    builder.startObject()
+                        .field("name", sample.mName)
+                        .field("type", sample.mType)
+                        .field("labels", sample.mLabels)
+                        .field("value", sample.mValue)
+                    .endObject();
+                }
+            builder.endArray()
+        .endObject();
+
+        writeResponse(response, builder);
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        doGet(request, response);
+    }
+
+    /**
+     * Collect current values of all metrics. Samples of the same metric are grouped together.
+     *
+     * @return list of metric samples
+     */
+    private List<Sample> collectSamples()
+    {
+        final List<Sample> samples = new ArrayList<>();
+
+        // request rates and latencies
+        final Map<String, Histogram> endpointHistograms = RequestTrace.getEndpointHistograms();
+        endpointHistograms.forEach((endpoint, histogram) ->
+                samples.add(new Sample("chatnoir_requests_total", "counter", histogram.getTotalCount(),
+                        "endpoint", endpoint)));
+        addSummary(samples, "chatnoir_request_duration_seconds", "endpoint", endpointHistograms);
+        addSummary(samples, "chatnoir_request_phase_duration_seconds", "phase", RequestTrace.getHistograms());
+
+        // Elasticsearch responses
+        final long responses = SimpleSearch.getResponseCount();
+        final long timedOut = SimpleSearch.getTimedOutResponseCount();
+        final long terminatedEarly = SimpleSearch.getTerminatedEarlyResponseCount();
+        samples.add(new Sample("chatnoir_search_responses_total", "counter", responses));
+        samples.add(new Sample("chatnoir_search_timed_out_total", "counter", timedOut));
+        samples.add(new Sample("chatnoir_search_timed_out_ratio", "gauge", ratio(timedOut, responses)));
+        samples.add(new Sample("chatnoir_search_terminated_early_total", "counter", terminatedEarly));
+        samples.add(new Sample("chatnoir_search_terminated_early_ratio", "gauge", ratio(terminatedEarly, responses)));
+
+        // MapFile readers
+        if (MapFileReader.isInitialized()) {
+            final MapFileReaderPool pool = MapFileReader.getReaderPool();
+            samples.add(new Sample("chatnoir_mapfile_readers_open", "gauge", pool.getOpenReaders()));
+            samples.add(new Sample("chatnoir_mapfile_readers_active", "gauge", pool.getActiveReaders()));
+        }
+
+        // caches
+        final Map<String, long[]> cacheStats = new LinkedHashMap<>();
+        final CacheManager cacheManager = CacheManager.create();
+        EH_CACHES.forEach((label, name) -> {
+            final Ehcache cache = cacheManager.getEhcache(name);
+            if (null == cache) {
+                return;
+            }
+            final Statistics stats = cache.getStatistics();
+            cacheStats.put(label, new long[]{stats.getCacheHits(), stats.getCacheMisses(), cache.getSize()});
+        });
+        cacheStats.put("results", new long[]{
+                SearchResultCache.getHits(), SearchResultCache.getMisses(), SearchResultCache.getSize()});
+        cacheStats.forEach((label, stats) ->
+                samples.add(new Sample("chatnoir_cache_hits_total", "counter", stats[0], "cache", label)));
+        cacheStats.forEach((label, stats) ->
+                samples.add(new Sample("chatnoir_cache_misses_total", "counter", stats[1], "cache", label)));
+        cacheStats.forEach((label, stats) ->
+                samples.add(new Sample("chatnoir_cache_hit_ratio", "gauge",
+                        ratio(stats[0], stats[0] + stats[1]), "cache", label)));
+        cacheStats.forEach((label, stats) ->
+                samples.add(new Sample("chatnoir_cache_size", "gauge", stats[2], "cache", label)));
+
+        // API quotas
+        final DefaultWebSecurityManager securityManager = (DefaultWebSecurityManager) SecurityUtils.getSecurityManager();
+        final ChatNoirWebSessionManager sessionManager = (ChatNoirWebSessionManager) securityManager.getSessionManager();
+        final ApiQuotaStore quotaStore = sessionManager.getApiQuotaStore();
+        samples.add(new Sample("chatnoir_api_quota_rejections_total", "counter", quotaStore.getRejections()));
+        samples.add(new Sample("chatnoir_api_quota_sessions", "gauge", quotaStore.getSize()));
+
+        return samples;
+    }
+
+    /**
+     * Add quantiles, sum and count of latency histograms as summary samples.
+     *
+     * @param samples list to add samples to
+     * @param name metric name
+     * @param label name of the label distinguishing the histograms
+     * @param histograms histograms in microseconds by label value
+     */
+    private static void addSummary(List<Sample> samples, String name, String label, Map<String, Histogram> histograms)
+    {
+        histograms.forEach((key, histogram) -> {
+            for (double quantile : QUANTILES) {
+                samples.add(new Sample(name, "summary", histogram.getValueAtPercentile(quantile * 100.0) / 1e6,
+                        label, key, "quantile", String.valueOf(quantile)));
+            }
+        });
+        histograms.forEach((key, histogram) ->
+                samples.add(new Sample(name + "_sum", "summary",
+                        histogram.getMean() * histogram.getTotalCount() / 1e6, label, key)));
+        histograms.forEach((key, histogram) ->
+                samples.add(new Sample(name + "_count", "summary", histogram.getTotalCount(), label, key)));
+    }
+
+    private static double ratio(long count, long total)
+    {
+        return total > 0 ? (double) count / total : 0.0;
+    }
+
+    /**
+     * Write metric samples in the Prometheus text exposition format.
+     *
+     * @param response HTTP response
+     * @param samples metric samples
+     */
+    private void writePrometheusResponse(HttpServletResponse response, List<Sample> samples) throws IOException
+    {
+        final StringBuilder out = new StringBuilder();
+        String lastName = null;
+        for (Sample sample : samples) {
+            // summary sub-series share the TYPE line of their base metric
+            final String baseName = "summary".equals(sample.mType) ?
+                    sample.mName.replaceAll("_(sum|count)$", "") : sample.mName;
+            if (!baseName.equals(lastName)) {
+                out.append("# TYPE ").append(baseName).append(' ').append(sample.mType).append('\n');
+                lastName = baseName;
+            }
+
+            out.append(sample.mName);
+            if (!sample.mLabels.isEmpty()) {
+                out.append('{');
+                boolean first = true;
+                for (Map.Entry<String, String> label : sample.mLabels.entrySet()) {
+                    if (!first) {
+                        out.append(',');
+                    }
+                    out.append(label.getKey()).append("=\"")
+                            .append(label.getValue().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                            .append('"');
+                    first = false;
+                }
+                out.append('}');
+            }
+            out.append(' ').append(sample.mValue).append('\n');
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(PROMETHEUS_CONTENT_TYPE);
+        response.getOutputStream().write(out.toString().getBytes(StandardCharsets.UTF_8));
+        response.getOutputStream().flush();
+    }
+
+    /**
+     * Single sample of a metric.
+     */
+    private static class Sample
+    {
+        private final String mName;
+        private final String mType;
+        private final Number mValue;
+        private final Map<String, String> mLabels = new LinkedHashMap<>();
+
+        /**
+         * @param name metric name
+         * @param type Prometheus metric type
+         * @param value sample value
+         * @param labels alternating label names and values
+         */
+        private Sample(String name, String type, Number value, String... labels)
+        {
+            mName = name;
+            mType = type;
+            mValue = value;
+            for (int i = 0; i + 1 < labels.length; i += 2) {
+                mLabels.put(labels[i], labels[i + 1]);
+            }
+        }
+    }
+}
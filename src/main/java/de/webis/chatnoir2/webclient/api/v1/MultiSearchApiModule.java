@@ -0,0 +1,220 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.api.v1;
+
+import de.webis.chatnoir2.webclient.api.ApiBootstrap;
+import de.webis.chatnoir2.webclient.api.ApiErrorModule;
+import de.webis.chatnoir2.webclient.api.ApiModuleBase;
+import de.webis.chatnoir2.webclient.auth.ChatNoirWebSessionManager;
+import de.webis.chatnoir2.webclient.search.MultiSearch;
+import de.webis.chatnoir2.webclient.search.SearchResultBuilder;
+import de.webis.chatnoir2.webclient.search.SimpleSearch;
+import de.webis.chatnoir2.webclient.util.Configured;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.web.mgt.DefaultWebSecurityManager;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ChatNoir API module for running a batch of simple searches with a single request.
+ * Each query in the batch is counted against the user's quota.
+ */
+@ApiModuleV1("_msearch")
+public class MultiSearchApiModule extends ApiModuleBase
+{
+    /**
+     * Maximum number of queries per request.
+     */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        final JSONArray queries = getTypedNestedParameter(JSONArray.class, "queries", request);
+        if (null == queries || queries.length() == 0) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, "No queries given");
+            return;
+        }
+        if (queries.length() > MAX_BATCH_SIZE) {
+            ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST,
+                    String.format("Too many queries (maximum: %d)", MAX_BATCH_SIZE));
+            return;
+        }
+
+        final Subject subject = SecurityUtils.getSubject();
+        final DefaultWebSecurityManager securityManager = (DefaultWebSecurityManager) SecurityUtils.getSecurityManager();
+        final ChatNoirWebSessionManager sessionManager = (ChatNoirWebSessionManager) securityManager.getSessionManager();
+        final int defaultSize = Configured.getConf().getInteger("serp.results_per_page");
+
+        final long startTime = System.currentTimeMillis();
+        final RequestTrace trace = RequestTrace.get(request);
+        final MultiSearch multiSearch = new MultiSearch();
+        final List<Entry> entries = new ArrayList<>();
+        boolean firstQuery = true;
+        for (int i = 0; i < queries.length(); ++i) {
+            final Entry entry = new Entry();
+            entries.add(entry);
+
+            final JSONObject q = queries.optJSONObject(i);
+            if (null == q) {
+                entry.mQuery = queries.get(i).toString();
+            } else {
+                entry.mQuery = q.optString("query", q.optString("q", null));
+            }
+            if (null == entry.mQuery || entry.mQuery.trim().isEmpty()) {
+                entry.setError(ApiErrorModule.SC_BAD_REQUEST, "Empty search query");
+                continue;
+            }
+
+            // the first query has already been counted by the authentication filter
+            if (!firstQuery && !sessionManager.acquireApiQuota(subject)) {
+                entry.setError(ApiErrorModule.SC_TOO_MANY_REQUESTS, "Quota exceeded");
+                continue;
+            }
+            firstQuery = false;
+
+            String[] indices = null;
+            int from = 0;
+            int size = defaultSize;
+            if (null != q) {
+                final JSONArray indicesArr = q.optJSONArray("index");
+                if (null != indicesArr) {
+                    indices = new String[indicesArr.length()];
+                    for (int j = 0; j < indicesArr.length(); ++j) {
+                        indices[j] = indicesArr.getString(j);
+                    }
+                } else if (null != q.optString("index", null)) {
+                    indices = q.getString("index").split(",");
+                }
+                from = Math.max(0, q.optInt("from", 0));
+                size = q.optInt("size", defaultSize);
+                if (size < 1) {
+                    size = defaultSize;
+                }
+            }
+
+            entry.mFrom = from;
+            entry.mSearch = new SimpleSearch(indices);
+            entry.mSearch.setTrace(trace);
+            entry.mSearch.setExplain(null != q && q.optBoolean("explain", false));
+            entry.mPosition = multiSearch.size();
+            multiSearch.add(entry.mSearch, entry.mQuery, from, size);
+        }
+
+        final long searchStart = System.nanoTime();
+        doAsync(request, response, multiSearch::doSearchAsync, (asyncRequest, asyncResponse) -> {
+            trace.recordSince("search", searchStart);
+            final long elapsedTime = System.currentTimeMillis() - startTime;
+
+            final XContentBuilder builder = getResponseBuilder(asyncRequest, asyncResponse);
+            builder.startObject()
+                .startObject("meta")
+                    .field("query_time", elapsedTime)
+                    .field("total_queries", entries.size());
+                    writeTimingInfo(asyncRequest, builder);
+                builder.endObject()
+                .startArray("responses");
+                    for (final Entry entry : entries) {
+                        builder.startObject();
+                        builder.field("query", entry.mQuery);
+
+                        if (null != entry.mSearch && null != multiSearch.getFailure(entry.mPosition)) {
+                            Configured.getSysLogger().error("Search failed", multiSearch.getFailure(entry.mPosition));
+                            entry.setError(ApiErrorModule.SC_INTERNAL_SERVER_ERROR, "Search failed");
+                        }
+
+                        if (null != entry.mErrorMessage) {
+                            builder.startObject("error")
+                                .field("code", entry.mErrorCode)
+                                .field("message", entry.mErrorMessage)
+                            .endObject();
+                        } else {
+                            final SimpleSearch search = entry.mSearch;
+                            final List<SearchResultBuilder.SearchResult> results = search.getResults();
+                            if (entry.mFrom == 0) {
+                                writeQueryLog(search, asyncRequest, entry.mQuery, false);
+                            }
+
+                            builder.startObject("meta")
+                                .field("total_results", search.getTotalResultNumber())
+                                .array("indices", search.getEffectiveIndices())
+                                .field("partial_indices", search.getPartialIndices())
+                            .endObject()
+                            .startArray("results");
+                                for (final SearchResultBuilder.SearchResult result : results) {
+                                    SimpleSearchApiModule.writeResult(builder, result);
+                                }
+                            builder.endArray();
+                        }
+                        builder.endObject();
+
+                        // send each response to the client right away
+                        builder.flush();
+                    }
+                builder.endArray()
+            .endObject();
+
+            writeResponse(asyncResponse, builder);
+        });
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        doGet(request, response);
+    }
+
+    /**
+     * Single query of a batch request.
+     */
+    private static class Entry
+    {
+        private String mQuery = null;
+        private SimpleSearch mSearch = null;
+        private int mPosition = -1;
+        private int mFrom = 0;
+        private int mErrorCode = 0;
+        private String mErrorMessage = null;
+
+        private void setError(int code, String message)
+        {
+            mSearch = null;
+            mErrorCode = code;
+            mErrorMessage = message;
+        }
+    }
+}
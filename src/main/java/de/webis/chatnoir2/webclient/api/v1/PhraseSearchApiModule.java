@@ -89,58 +89,75 @@ public class PhraseSearchApiModule extends ApiModuleBase
         }
 
         final PhraseSearch search = new PhraseSearch(indicesStr);
+        final String cursor = getTypedNestedParameter(String.class, "search_after", request);
+        if (null != cursor) {
+            try {
+                search.setSearchAfter(cursor);
+            } catch (IllegalArgumentException e) {
+                ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+        }
         final long startTime = System.currentTimeMillis();
         search.setSlop(slop);
         search.setExplain(doExplain);
-        search.doSearch(searchQueryString, from, size);
-        final long elapsedTime = System.currentTimeMillis() - startTime;
+        final String query = searchQueryString;
+        final boolean firstPage = null == cursor ? from == 0 : cursor.isEmpty();
+        doSearchAsync(request, response, search, query, from, size, (asyncRequest, asyncResponse) -> {
+            final long elapsedTime = System.currentTimeMillis() - startTime;
 
-        final List<SearchResultBuilder.SearchResult> results = search.getResults();
+            final List<SearchResultBuilder.SearchResult> results = search.getResults();
 
-        // write query log
-        if (from == 0) {
-            writeQueryLog(search, request, searchQueryString, false);
-        }
+            // write query log
+            if (firstPage) {
+                writeQueryLog(search, asyncRequest, query, false);
+            }
 
-        final XContentBuilder builder = getResponseBuilder(request);
-        builder.startObject()
-            .startObject("meta")
-                .field("query_time", elapsedTime)
-                .field("total_results", search.getTotalResultNumber())
-                .array("indices", search.getEffectiveIndices())
-            .endObject()
-            .startArray("results");
-                for (final SearchResultBuilder.SearchResult result : results) {
-                    builder.startObject();
-                        builder.field("score", result.score())
-                                .field("uuid", result.documentId());
-
-                        if (!minimal) {
-                            builder.field("index", result.index())
-                                    .field("trec_id", result.trecId())
-                                    .field("target_hostname", result.targetHostname());
-                        }
-
-                        builder.field("target_uri", result.targetUri());
-
-                        if (!minimal) {
-                            builder.field("page_rank", result.pageRank())
-                                    .field("spam_rank", result.spamRank())
-                                    .field("title", result.title());
-                        }
-
-                        builder.field("snippet", result.snippet());
-
-                        if (!minimal || doExplain) {
-                            builder.field("explanation");
-                            new ExplanationXContent(result.explanation()).toXContent(builder, ToXContent.EMPTY_PARAMS);
-                        }
-                    builder.endObject();
-                }
-            builder.endArray()
-        .endObject();
-
-        writeResponse(response, builder);
+            final XContentBuilder builder = getResponseBuilder(asyncRequest, asyncResponse);
+            builder.startObject()
+                .startObject("meta")
+                    .field("query_time", elapsedTime)
+                    .field("total_results", search.getTotalResultNumber())
+                    .array("indices", search.getEffectiveIndices())
+                    .field("partial_indices", search.getPartialIndices());
+                    if (search.isCursorMode()) {
+                        builder.field("next_cursor", search.getNextCursor());
+                    }
+                    writeTimingInfo(asyncRequest, builder);
+                builder.endObject()
+                .startArray("results");
+                    for (final SearchResultBuilder.SearchResult result : results) {
+                        builder.startObject();
+                            builder.field("score", result.score())
+                                    .field("uuid", result.documentId());
+
+                            if (!minimal) {
+                                builder.field("index", result.index())
+                                        .field("trec_id", result.trecId())
+                                        .field("target_hostname", result.targetHostname());
+                            }
+
+                            builder.field("target_uri", result.targetUri());
+
+                            if (!minimal) {
+                                builder.field("page_rank", result.pageRank())
+                                        .field("spam_rank", result.spamRank())
+                                        .field("title", result.title());
+                            }
+
+                            builder.field("snippet", result.snippet());
+
+                            if (!minimal || doExplain) {
+                                builder.field("explanation");
+                                new ExplanationXContent(result.explanation()).toXContent(builder, ToXContent.EMPTY_PARAMS);
+                            }
+                        builder.endObject();
+                    }
+                builder.endArray()
+            .endObject();
+
+            writeResponse(asyncResponse, builder);
+        });
     }
 
     @Override
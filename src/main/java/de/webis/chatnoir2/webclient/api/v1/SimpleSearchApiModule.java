@@ -82,47 +82,75 @@ public class SimpleSearchApiModule extends ApiModuleBase
         }
 
         final SimpleSearch search = new SimpleSearch(indicesStr);
+        final String cursor = getTypedNestedParameter(String.class, "search_after", request);
+        if (null != cursor) {
+            try {
+                search.setSearchAfter(cursor);
+            } catch (IllegalArgumentException e) {
+                ApiBootstrap.handleApiError(request, response, ApiErrorModule.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+        }
         final long startTime = System.currentTimeMillis();
         search.setExplain(doExplain);
-        search.doSearch(searchQueryString, from, size);
-        final long elapsedTime = System.currentTimeMillis() - startTime;
+        final String query = searchQueryString;
+        final boolean firstPage = null == cursor ? from == 0 : cursor.isEmpty();
+        doSearchAsync(request, response, search, query, from, size, (asyncRequest, asyncResponse) -> {
+            final long elapsedTime = System.currentTimeMillis() - startTime;
 
-        final List<SearchResultBuilder.SearchResult> results = search.getResults();
+            final List<SearchResultBuilder.SearchResult> results = search.getResults();
 
-        // write query log
-        if (from == 0) {
-            writeQueryLog(search, request, searchQueryString, false);
-        }
+            // write query log
+            if (firstPage) {
+                writeQueryLog(search, asyncRequest, query, false);
+            }
 
-        final XContentBuilder builder = getResponseBuilder(request);
-        builder.startObject()
-            .startObject("meta")
-                .field("query_time", elapsedTime)
-                .field("total_results", search.getTotalResultNumber())
-                .array("indices", search.getEffectiveIndices())
-            .endObject()
-            .startArray("results");
+            final XContentBuilder builder = getResponseBuilder(asyncRequest, asyncResponse);
+            builder.startObject()
+                .startObject("meta")
+                    .field("query_time", elapsedTime)
+                    .field("total_results", search.getTotalResultNumber())
+                    .array("indices", search.getEffectiveIndices())
+                    .field("partial_indices", search.getPartialIndices());
+                    if (search.isCursorMode()) {
+                        builder.field("next_cursor", search.getNextCursor());
+                    }
+                    writeTimingInfo(asyncRequest, builder);
+                builder.endObject()
+                .startArray("results");
 
-                for (final SearchResultBuilder.SearchResult result : results) {
-                    builder.startObject()
-                        .field("score", result.score())
-                        .field("uuid", result.documentId())
-                        .field("index", result.index())
-                        .field("trec_id", result.trecId())
-                        .field("target_hostname", result.targetHostname())
-                        .field("target_uri", result.targetUri())
-                        .field("page_rank", result.pageRank())
-                        .field("spam_rank", result.spamRank())
-                        .field("title", result.title())
-                        .field("snippet", result.snippet())
-                        .field("explanation");
-                            new ExplanationXContent(result.explanation()).toXContent(builder, ToXContent.EMPTY_PARAMS);
-                    builder.endObject();
-                }
-            builder.endArray()
-        .endObject();
+                    for (final SearchResultBuilder.SearchResult result : results) {
+                        writeResult(builder, result);
+                    }
+                builder.endArray()
+            .endObject();
 
-        writeResponse(response, builder);
+            writeResponse(asyncResponse, builder);
+        });
+    }
+
+    /**
+     * Write a single search result as JSON object.
+     *
+     * @param builder XContent builder to write to
+     * @param result search result
+     */
+    static void writeResult(XContentBuilder builder, SearchResultBuilder.SearchResult result) throws IOException
+    {
+        builder.startObject()
+            .field("score", result.score())
+            .field("uuid", result.documentId())
+            .field("index", result.index())
+            .field("trec_id", result.trecId())
+            .field("target_hostname", result.targetHostname())
+            .field("target_uri", result.targetUri())
+            .field("page_rank", result.pageRank())
+            .field("spam_rank", result.spamRank())
+            .field("title", result.title())
+            .field("snippet", result.snippet())
+            .field("explanation");
+            new ExplanationXContent(result.explanation()).toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject();
     }
 
     @Override
@@ -0,0 +1,337 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.auth;
+
+import de.webis.chatnoir2.webclient.model.api.ApiKeyPolicy;
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.apache.shiro.session.InvalidSessionException;
+import org.apache.shiro.session.Session;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-memory ledger of API quota usage per API session.
+ *
+ * Quota windows are counted with atomic counters, so concurrent requests with the same
+ * API key neither lose increments nor exceed their quota. Usage counts are written back
+ * to the session store periodically in the background and restored from there when a
+ * session is first seen by the ledger (e.g., after a restart).
+ *
+ * Quota is counted per node, so each node of a multi-node deployment enforces
+ * the full limits on its own. Use {@link ElasticsearchQuotaStore} to share quota
+ * between nodes.
+ */
+public class ApiQuotaLedger implements ApiQuotaStore
+{
+    private static final String ATTR_BASE = ChatNoirWebSessionManager.class.getName();
+    private static final String API_SESSION_MONTH_WINDOW_START = ATTR_BASE + ".API_SESSION_MONTH_WINDOW_START";
+    private static final String API_SESSION_WEEK_WINDOW_START =  ATTR_BASE + ".API_SESSION_WEEK_WINDOW_START";
+    private static final String API_SESSION_DAY_WINDOW_START =   ATTR_BASE + ".API_SESSION_DAY_WINDOW_START";
+    private static final String API_SESSION_MONTH_WINDOW_USAGE = ATTR_BASE + ".API_SESSION_MONTH_WINDOW_USAGE";
+    private static final String API_SESSION_WEEK_WINDOW_USAGE =  ATTR_BASE + ".API_SESSION_WEEK_WINDOW_USAGE";
+    private static final String API_SESSION_DAY_WINDOW_USAGE =   ATTR_BASE + ".API_SESSION_DAY_WINDOW_USAGE";
+
+    private static final long DAY_MILLIS = 60L * 60 * 24 * 1000;
+
+    /**
+     * Quota accounts by session ID (which is the API key for API sessions).
+     */
+    private final Map<Serializable, Account> mAccounts = new ConcurrentHashMap<>();
+
+    /**
+     * Time in milliseconds after which unused accounts are dropped from the ledger.
+     */
+    private final long mMaxIdleTime;
+
+    private final ScheduledExecutorService mFlushExecutor;
+
+    /**
+     * Total number of requests rejected due to exceeded quotas.
+     */
+    private final AtomicLong mRejections = new AtomicLong();
+
+    /**
+     * @param flushInterval interval in milliseconds in which to write usage counts back to the session store
+     * @param maxIdleTime time in milliseconds after which unused accounts are dropped from the ledger
+     */
+    public ApiQuotaLedger(long flushInterval, long maxIdleTime)
+    {
+        mMaxIdleTime = maxIdleTime;
+        mFlushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ApiQuotaLedger-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        mFlushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void reset(Session session)
+    {
+        mAccounts.remove(session.getId());
+
+        long curTime = System.currentTimeMillis();
+        session.setAttribute(API_SESSION_MONTH_WINDOW_START, curTime);
+        session.setAttribute(API_SESSION_WEEK_WINDOW_START, curTime);
+        session.setAttribute(API_SESSION_DAY_WINDOW_START, curTime);
+
+        session.setAttribute(API_SESSION_MONTH_WINDOW_USAGE, 0L);
+        session.setAttribute(API_SESSION_WEEK_WINDOW_USAGE, 0L);
+        session.setAttribute(API_SESSION_DAY_WINDOW_USAGE, 0L);
+    }
+
+    @Override
+    public boolean tryAcquire(Session session, ApiKeyPolicy policy)
+    {
+        final Account account = getAccount(session);
+        final long now = System.currentTimeMillis();
+
+        final AtomicLong day = account.mDay.current(now);
+        final AtomicLong week = account.mWeek.current(now);
+        final AtomicLong month = account.mMonth.current(now);
+
+        // reserve a request in each window and roll back reservations if one of them is exhausted
+        if (!tryIncrement(day, policy.getDailyLimit())) {
+            mRejections.incrementAndGet();
+            return false;
+        }
+        if (!tryIncrement(week, policy.getWeeklyLimit())) {
+            day.decrementAndGet();
+            mRejections.incrementAndGet();
+            return false;
+        }
+        if (!tryIncrement(month, policy.getMonthlyLimit())) {
+            day.decrementAndGet();
+            week.decrementAndGet();
+            mRejections.incrementAndGet();
+            return false;
+        }
+
+        account.mDirty.set(true);
+        return true;
+    }
+
+    @Override
+    public void increment(Session session)
+    {
+        final Account account = getAccount(session);
+        final long now = System.currentTimeMillis();
+        tryIncrement(account.mDay.current(now), 0);
+        tryIncrement(account.mWeek.current(now), 0);
+        tryIncrement(account.mMonth.current(now), 0);
+        account.mDirty.set(true);
+    }
+
+    @Override
+    public long getRejections()
+    {
+        return mRejections.get();
+    }
+
+    @Override
+    public int getSize()
+    {
+        return mAccounts.size();
+    }
+
+    @Override
+    public void flush()
+    {
+        final long now = System.currentTimeMillis();
+        final Iterator<Account> it = mAccounts.values().iterator();
+        while (it.hasNext()) {
+            final Account account = it.next();
+            try {
+                if (account.mDirty.getAndSet(false)) {
+                    account.store(now);
+                }
+            } catch (InvalidSessionException e) {
+                it.remove();
+                continue;
+            } catch (Exception e) {
+                account.mDirty.set(true);
+                Configured.getSysLogger().error("Failed to store API quota usage", e);
+            }
+
+            if (now - account.mLastAccess > mMaxIdleTime) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        mFlushExecutor.shutdownNow();
+        flush();
+    }
+
+    private Account getAccount(Session session)
+    {
+        final Account account = mAccounts.computeIfAbsent(session.getId(), k -> new Account(session));
+        account.mLastAccess = System.currentTimeMillis();
+        return account;
+    }
+
+    /**
+     * Increment counter unless it has reached the given limit.
+     *
+     * @param counter counter to increment
+     * @param limit limit (0 or less means unlimited)
+     * @return false if limit was reached
+     */
+    private static boolean tryIncrement(AtomicLong counter, long limit)
+    {
+        long value;
+        do {
+            value = counter.get();
+            if ((limit > 0 && value >= limit) || value == Long.MAX_VALUE) {
+                return limit <= 0;
+            }
+        } while (!counter.compareAndSet(value, value + 1));
+        return true;
+    }
+
+    private static long getLongAttribute(Session session, String attributeName, long defaultValue)
+    {
+        Long value = (Long) session.getAttribute(attributeName);
+        return null != value ? value : defaultValue;
+    }
+
+    /**
+     * Quota usage of a single API session.
+     */
+    private static class Account
+    {
+        private final Session mSession;
+        private final QuotaWindow mDay;
+        private final QuotaWindow mWeek;
+        private final QuotaWindow mMonth;
+        private final AtomicBoolean mDirty = new AtomicBoolean(false);
+        private volatile long mLastAccess;
+
+        /**
+         * Create account and restore usage counts from the session.
+         *
+         * @param session API session
+         */
+        private Account(Session session)
+        {
+            final long now = System.currentTimeMillis();
+            mSession = session;
+            mDay = new QuotaWindow(DAY_MILLIS,
+                    getLongAttribute(session, API_SESSION_DAY_WINDOW_START, now),
+                    getLongAttribute(session, API_SESSION_DAY_WINDOW_USAGE, 0L));
+            mWeek = new QuotaWindow(DAY_MILLIS * 7,
+                    getLongAttribute(session, API_SESSION_WEEK_WINDOW_START, now),
+                    getLongAttribute(session, API_SESSION_WEEK_WINDOW_USAGE, 0L));
+            mMonth = new QuotaWindow(DAY_MILLIS * 30,
+                    getLongAttribute(session, API_SESSION_MONTH_WINDOW_START, now),
+                    getLongAttribute(session, API_SESSION_MONTH_WINDOW_USAGE, 0L));
+            mLastAccess = now;
+        }
+
+        /**
+         * Write current usage counts to the session.
+         *
+         * @param now current time
+         */
+        private void store(long now)
+        {
+            QuotaWindow.Slot day = mDay.currentSlot(now);
+            QuotaWindow.Slot week = mWeek.currentSlot(now);
+            QuotaWindow.Slot month = mMonth.currentSlot(now);
+
+            mSession.setAttribute(API_SESSION_DAY_WINDOW_START, day.mStart);
+            mSession.setAttribute(API_SESSION_DAY_WINDOW_USAGE, day.mUsage.get());
+            mSession.setAttribute(API_SESSION_WEEK_WINDOW_START, week.mStart);
+            mSession.setAttribute(API_SESSION_WEEK_WINDOW_USAGE, week.mUsage.get());
+            mSession.setAttribute(API_SESSION_MONTH_WINDOW_START, month.mStart);
+            mSession.setAttribute(API_SESSION_MONTH_WINDOW_USAGE, month.mUsage.get());
+        }
+    }
+
+    /**
+     * Fixed-size quota window which starts over once it has expired.
+     */
+    private static class QuotaWindow
+    {
+        private final long mSizeMillis;
+        private final AtomicReference<Slot> mSlot;
+
+        private QuotaWindow(long sizeMillis, long start, long usage)
+        {
+            mSizeMillis = sizeMillis;
+            mSlot = new AtomicReference<>(new Slot(start, usage));
+        }
+
+        /**
+         * Get usage counter of the current window, starting a new window if the previous one has expired.
+         *
+         * @param now current time
+         * @return usage counter
+         */
+        private AtomicLong current(long now)
+        {
+            return currentSlot(now).mUsage;
+        }
+
+        private Slot currentSlot(long now)
+        {
+            while (true) {
+                final Slot slot = mSlot.get();
+                if (now - slot.mStart <= mSizeMillis) {
+                    return slot;
+                }
+                final Slot newSlot = new Slot(now, 0L);
+                if (mSlot.compareAndSet(slot, newSlot)) {
+                    return newSlot;
+                }
+            }
+        }
+
+        private static class Slot
+        {
+            private final long mStart;
+            private final AtomicLong mUsage;
+
+            private Slot(long start, long usage)
+            {
+                mStart = start;
+                mUsage = new AtomicLong(usage);
+            }
+        }
+    }
+}
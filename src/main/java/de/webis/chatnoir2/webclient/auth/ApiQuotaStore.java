@@ -0,0 +1,79 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.auth;
+
+import de.webis.chatnoir2.webclient.model.api.ApiKeyPolicy;
+import org.apache.shiro.session.Session;
+
+/**
+ * Backend for counting API requests against the quota limits of API sessions.
+ */
+public interface ApiQuotaStore
+{
+    /**
+     * Reset quota usage of a freshly initialized API session.
+     *
+     * @param session API session
+     */
+    void reset(Session session);
+
+    /**
+     * Count one request against the quota of a session if none of its quota windows is exhausted.
+     *
+     * @param session API session
+     * @param policy effective API key policy with the limits to validate against
+     * @return true if the request was counted, false if the quota is exceeded
+     */
+    boolean tryAcquire(Session session, ApiKeyPolicy policy);
+
+    /**
+     * Count one request against the quota of a session regardless of its limits.
+     *
+     * @param session API session
+     */
+    void increment(Session session);
+
+    /**
+     * @return total number of requests rejected due to exceeded quotas
+     */
+    long getRejections();
+
+    /**
+     * @return number of API sessions currently held by the store
+     */
+    int getSize();
+
+    /**
+     * Write pending usage counts back to the underlying storage.
+     */
+    void flush();
+
+    /**
+     * Flush pending usage counts and release all resources held by this store.
+     */
+    void close();
+}
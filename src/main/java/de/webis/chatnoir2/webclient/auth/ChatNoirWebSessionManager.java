@@ -29,7 +29,6 @@ import de.webis.chatnoir2.webclient.ChatNoirServlet;
 import de.webis.chatnoir2.webclient.api.exceptions.UserErrorException;
 import de.webis.chatnoir2.webclient.auth.api.ApiAuthenticationFilter;
 import de.webis.chatnoir2.webclient.auth.api.ApiTokenRealm;
-import de.webis.chatnoir2.webclient.model.api.ApiKeyModel;
 import de.webis.chatnoir2.webclient.resources.ConfigLoader;
 import de.webis.chatnoir2.webclient.util.Configured;
 import org.apache.shiro.mgt.RealmSecurityManager;
@@ -68,16 +67,15 @@ public class ChatNoirWebSessionManager extends DefaultWebSessionManager
     /**
      * API session attributes.
      */
-    public static final String IS_API_SESSION_ATTR =             ATTR_BASE + ".IS_API_SESSION";
-    private static final String API_SESSION_MONTH_WINDOW_START = ATTR_BASE + ".API_SESSION_MONTH_WINDOW_START";
-    private static final String API_SESSION_WEEK_WINDOW_START =  ATTR_BASE + ".API_SESSION_WEEK_WINDOW_START";
-    private static final String API_SESSION_DAY_WINDOW_START =   ATTR_BASE + ".API_SESSION_DAY_WINDOW_START";
-    private static final String API_SESSION_MONTH_WINDOW_USAGE = ATTR_BASE + ".API_SESSION_MONTH_WINDOW_USAGE";
-    private static final String API_SESSION_WEEK_WINDOW_USAGE =  ATTR_BASE + ".API_SESSION_WEEK_WINDOW_USAGE";
-    private static final String API_SESSION_DAY_WINDOW_USAGE =   ATTR_BASE + ".API_SESSION_DAY_WINDOW_USAGE";
+    public static final String IS_API_SESSION_ATTR = ATTR_BASE + ".IS_API_SESSION";
 
     private RealmSecurityManager mSecurityManager = null;
 
+    /**
+     * API quota usage of all active API sessions.
+     */
+    private final ApiQuotaStore mQuotaStore;
+
     /**
      * Path matcher for evaluating path prefixes.
      */
@@ -95,6 +93,34 @@ public class ChatNoirWebSessionManager extends DefaultWebSessionManager
 
         // TODO: make this dependent on whether this is a web frontend or API response
         setSessionIdCookieEnabled(false);
+
+        mQuotaStore = createQuotaStore();
+    }
+
+    /**
+     * Create the API quota store backend configured in <tt>auth.api.quota_store.backend</tt>.
+     *
+     * @return quota store
+     */
+    private static ApiQuotaStore createQuotaStore()
+    {
+        final ConfigLoader.Config conf = Configured.getConf();
+        final long flushInterval = conf.getLong("auth.api.quota_flush_interval", 10000L);
+        final String backend = conf.getString("auth.api.quota_store.backend", "local");
+
+        if (backend.equals("elasticsearch")) {
+            return new ElasticsearchQuotaStore(
+                    conf.getString("auth.api.quota_store.index", "chatnoir2_api_quota"),
+                    conf.getLong("auth.api.quota_store.lease_size", 50L),
+                    flushInterval,
+                    API_SESSION_LIFETIME);
+        }
+
+        if (!backend.equals("local")) {
+            Configured.getSysLogger().warn(String.format(
+                    "Unknown API quota store backend '%s', falling back to 'local'.", backend));
+        }
+        return new ApiQuotaLedger(flushInterval, API_SESSION_LIFETIME);
     }
 
     public void setSecurityManager(RealmSecurityManager securityManager) {
@@ -115,14 +141,7 @@ public class ChatNoirWebSessionManager extends DefaultWebSessionManager
         session.setTimeout(API_SESSION_LIFETIME);
 
         // reset windows
-        long curTime = System.currentTimeMillis();
-        session.setAttribute(API_SESSION_MONTH_WINDOW_START, curTime);
-        session.setAttribute(API_SESSION_WEEK_WINDOW_START, curTime);
-        session.setAttribute(API_SESSION_DAY_WINDOW_START, curTime);
-
-        session.setAttribute(API_SESSION_MONTH_WINDOW_USAGE, 0L);
-        session.setAttribute(API_SESSION_WEEK_WINDOW_USAGE, 0L);
-        session.setAttribute(API_SESSION_DAY_WINDOW_USAGE, 0L);
+        mQuotaStore.reset(session);
     }
 
     /**
@@ -149,93 +168,33 @@ public class ChatNoirWebSessionManager extends DefaultWebSessionManager
             throw new IllegalArgumentException("Session is not an API session");
         }
 
-        safeAttributeIncrement(session, API_SESSION_DAY_WINDOW_USAGE);
-        safeAttributeIncrement(session, API_SESSION_WEEK_WINDOW_USAGE);
-        safeAttributeIncrement(session, API_SESSION_MONTH_WINDOW_USAGE);
-    }
-
-    /**
-     * Safely increment an int or long session attribute with check for null and without overflows.
-     *
-     * @param attributeName session attribute
-     */
-    private void safeAttributeIncrement(Session session, String attributeName)
-    {
-        Long val = (Long) session.getAttribute(attributeName);
-        if (null == val) {
-            val = 0L;
-        }
-        long increment = val < Long.MAX_VALUE ? 1L : 0L;
-        session.setAttribute(attributeName, val + increment);
+        mQuotaStore.increment(session);
     }
 
     /**
-     * Validate and possibly reset quota usage windows for the given session.
+     * Atomically validate the quota of the given subject and count one request against it
+     * if it is not exceeded.
      *
-     * @param subject subject to validate API quota for
-     * @return true if API quota not exceeded
+     * @param subject subject to validate and update API quota for
+     * @return true if API quota was not exceeded and the request has been counted
      * @throws IllegalArgumentException if subject's session is not a properly initialized API session
      */
-    public boolean validateApiSessionQuota(Subject subject) throws IllegalArgumentException
+    public boolean acquireApiQuota(Subject subject) throws IllegalArgumentException
     {
         Session session = subject.getSession();
         if (!isApiSession(session)) {
             throw new IllegalArgumentException("Session is not an API session");
         }
 
-        ApiKeyModel.ApiLimits limits = ApiTokenRealm.getUserModel(subject).getApiLimits();
-
-        // validate quota for month, week and day
-        return validateApiSessionWindow(session, 2, limits) &&
-                validateApiSessionWindow(session, 1, limits) &&
-                validateApiSessionWindow(session, 0, limits);
+        return mQuotaStore.tryAcquire(session, ApiTokenRealm.getKeyPolicy(subject));
     }
 
     /**
-     * Helper method for validating an API quota window.
-     * If the window has expired, it will be reset.
-     *
-     * @param session API session to validate
-     * @param windowDescriptor 0, 1 or 2 for month, week or day
-     * @param limits API limits to validate against
-     * @return true if quota window not exceeded
+     * @return API quota store
      */
-    private boolean validateApiSessionWindow(Session session, int windowDescriptor, ApiKeyModel.ApiLimits limits)
+    public ApiQuotaStore getApiQuotaStore()
     {
-        String windowStartAttr = API_SESSION_DAY_WINDOW_START;
-        String windowUsageAttr = API_SESSION_DAY_WINDOW_USAGE;
-        long windowSizeMillis = 60L * 60 * 24 * 1000;
-        if (0 == windowDescriptor) {
-            windowStartAttr = API_SESSION_MONTH_WINDOW_START;
-            windowUsageAttr = API_SESSION_DAY_WINDOW_USAGE;
-            windowSizeMillis *= 30;
-        } else if (1 == windowDescriptor) {
-            windowStartAttr = API_SESSION_WEEK_WINDOW_START;
-            windowUsageAttr = API_SESSION_DAY_WINDOW_USAGE;
-            windowSizeMillis *= 7;
-        }
-
-        Long windowStart = (Long) session.getAttribute(windowStartAttr);
-        Long windowUsage = (Long) session.getAttribute(windowUsageAttr);
-        long currentTime = System.currentTimeMillis();
-
-        // reset window if it's older than the window size
-        if (currentTime - windowStart > windowSizeMillis) {
-            session.setAttribute(windowStartAttr, currentTime);
-            session.setAttribute(windowUsageAttr, 0L);
-            windowUsage = 0L;
-        }
-
-        // check if quota exceeded
-        long lim;
-        if (0 == windowDescriptor) {
-            lim = limits.getMonthlyLimit();
-        } else if (1 == windowDescriptor) {
-            lim = limits.getWeeklyLimit();
-        } else {
-            lim = limits.getDailyLimit();
-        }
-        return (lim <= 0) || (windowUsage < lim);
+        return mQuotaStore;
     }
 
     /**
@@ -283,6 +242,13 @@ public class ChatNoirWebSessionManager extends DefaultWebSessionManager
         }
     }
 
+    @Override
+    public void destroy()
+    {
+        mQuotaStore.close();
+        super.destroy();
+    }
+
     @Override
     public void validateSessions()
     {
@@ -0,0 +1,495 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.auth;
+
+import de.webis.chatnoir2.webclient.model.api.ApiKeyPolicy;
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.apache.shiro.session.Session;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * API quota store which shares quota usage between all nodes of a deployment
+ * through a counter index in Elasticsearch.
+ *
+ * To keep Elasticsearch round trips out of the per-request path, each node leases chunks of
+ * quota from the central counters and hands them out locally with atomic counters. A new
+ * chunk is leased only once the local one is used up, so a node talks to the cluster at most
+ * once per chunk and quota window. Unused parts of a lease are given back when an account
+ * becomes idle or the store is closed. Across the cluster, a key can therefore never exceed
+ * its limits, but it may be rejected early by up to one chunk per node while other nodes
+ * still hold unused leases.
+ */
+public class ElasticsearchQuotaStore implements ApiQuotaStore
+{
+    private static final String TYPE = "quota";
+
+    private static final long DAY_MILLIS = 60L * 60 * 24 * 1000;
+
+    /**
+     * Empty lease handed out while the central counters are unavailable. Nothing has been counted for it.
+     */
+    private static final Lease UNCOUNTED = new Lease(0L, 0L);
+
+    /**
+     * Lease quota from a counter, starting a new window if the current one has expired.
+     * The granted amount is stored in the document so that it can be read from the update response.
+     */
+    private static final String LEASE_SCRIPT =
+            "long now = params.now;" +
+            "if (ctx._source.start == null || now - ((Number) ctx._source.start).longValue() > params.window) {" +
+            "  ctx._source.start = now;" +
+            "  ctx._source.count = 0L;" +
+            "}" +
+            "long count = ((Number) ctx._source.count).longValue();" +
+            "long grant = params.amount;" +
+            "if (params.limit > 0) {" +
+            "  grant = Math.max(0L, Math.min(grant, params.limit - count));" +
+            "}" +
+            "ctx._source.count = count + grant;" +
+            "ctx._source.grant = grant;";
+
+    /**
+     * Give back unused quota to a counter if its window has not been restarted in the meantime.
+     */
+    private static final String RELEASE_SCRIPT =
+            "if (ctx._source.start == null || ((Number) ctx._source.start).longValue() != params.start) {" +
+            "  ctx.op = 'none';" +
+            "} else {" +
+            "  ctx._source.count = Math.max(0L, ((Number) ctx._source.count).longValue() - params.amount);" +
+            "}";
+
+    /**
+     * Quota accounts by session ID (which is the API key for API sessions).
+     */
+    private final Map<Serializable, Account> mAccounts = new ConcurrentHashMap<>();
+
+    /**
+     * Counter index name.
+     */
+    private final String mIndexName;
+
+    /**
+     * Number of requests to lease from the central counters at once.
+     */
+    private final long mLeaseSize;
+
+    /**
+     * Time in milliseconds to wait before trying to lease from an exhausted counter again.
+     */
+    private final long mRetryInterval;
+
+    /**
+     * Time in milliseconds after which unused accounts are dropped and their leases released.
+     */
+    private final long mMaxIdleTime;
+
+    private final ScheduledExecutorService mFlushExecutor;
+
+    /**
+     * Total number of requests rejected due to exceeded quotas.
+     */
+    private final AtomicLong mRejections = new AtomicLong();
+
+    /**
+     * @param indexName name of the counter index
+     * @param leaseSize number of requests to lease from the central counters at once
+     * @param flushInterval interval in milliseconds in which to release leases of idle accounts
+     *                      (also used as back-off before leasing from an exhausted counter again)
+     * @param maxIdleTime time in milliseconds after which unused accounts release their leases
+     */
+    public ElasticsearchQuotaStore(String indexName, long leaseSize, long flushInterval, long maxIdleTime)
+    {
+        mIndexName = indexName;
+        mLeaseSize = Math.max(1L, leaseSize);
+        mRetryInterval = flushInterval;
+        mMaxIdleTime = maxIdleTime;
+
+        ensureIndexCreated("apiquota.mapping.json");
+
+        mFlushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ElasticsearchQuotaStore-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        mFlushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop the local leases of a session. Central counters are not reset, since a new
+     * session for the same API key may be created on every node of the cluster.
+     *
+     * @param session API session
+     */
+    @Override
+    public void reset(Session session)
+    {
+        Account account = mAccounts.remove(session.getId());
+        if (null != account) {
+            account.release();
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(Session session, ApiKeyPolicy policy)
+    {
+        final Account account = getAccount(session);
+        final long now = System.currentTimeMillis();
+
+        // reserve a request in each window and roll back reservations if one of them is exhausted
+        final Lease day = account.mDay.take(now, policy.getDailyLimit());
+        if (null == day) {
+            mRejections.incrementAndGet();
+            return false;
+        }
+        final Lease week = account.mWeek.take(now, policy.getWeeklyLimit());
+        if (null == week) {
+            account.mDay.giveBack(day);
+            mRejections.incrementAndGet();
+            return false;
+        }
+        if (null == account.mMonth.take(now, policy.getMonthlyLimit())) {
+            account.mDay.giveBack(day);
+            account.mWeek.giveBack(week);
+            mRejections.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void increment(Session session)
+    {
+        final Account account = getAccount(session);
+        final long now = System.currentTimeMillis();
+        account.mDay.take(now, 0);
+        account.mWeek.take(now, 0);
+        account.mMonth.take(now, 0);
+    }
+
+    @Override
+    public long getRejections()
+    {
+        return mRejections.get();
+    }
+
+    @Override
+    public int getSize()
+    {
+        return mAccounts.size();
+    }
+
+    /**
+     * Release leases of accounts which have not been used for longer than the maximum idle time.
+     * Usage itself is already counted centrally at the time a lease is taken.
+     */
+    @Override
+    public void flush()
+    {
+        final long now = System.currentTimeMillis();
+        final Iterator<Account> it = mAccounts.values().iterator();
+        while (it.hasNext()) {
+            final Account account = it.next();
+            if (now - account.mLastAccess > mMaxIdleTime) {
+                it.remove();
+                account.release();
+            }
+        }
+    }
+
+    /**
+     * Stop the background flush task and give back all unused leases.
+     */
+    @Override
+    public void close()
+    {
+        mFlushExecutor.shutdownNow();
+        final Iterator<Account> it = mAccounts.values().iterator();
+        while (it.hasNext()) {
+            it.next().release();
+            it.remove();
+        }
+    }
+
+    private Account getAccount(Session session)
+    {
+        final Account account = mAccounts.computeIfAbsent(session.getId(), k -> new Account(k.toString()));
+        account.mLastAccess = System.currentTimeMillis();
+        return account;
+    }
+
+    /**
+     * Ensure that the counter index exists.
+     *
+     * @param mappingFile path to file containing Elasticsearch index mapping template for creating a new index
+     */
+    private void ensureIndexCreated(String mappingFile)
+    {
+        try {
+            Configured.getClient().ensureIndexCreated(mIndexName, mappingFile);
+        } catch (Exception e) {
+            Configured.getSysLogger().error("Error creating API quota index", e);
+        }
+    }
+
+    /**
+     * Quota leases of a single API key.
+     */
+    private class Account
+    {
+        private final QuotaWindow mDay;
+        private final QuotaWindow mWeek;
+        private final QuotaWindow mMonth;
+        private volatile long mLastAccess;
+
+        /**
+         * @param apiKey API key
+         */
+        private Account(String apiKey)
+        {
+            mDay = new QuotaWindow(apiKey + "-day", DAY_MILLIS);
+            mWeek = new QuotaWindow(apiKey + "-week", DAY_MILLIS * 7);
+            mMonth = new QuotaWindow(apiKey + "-month", DAY_MILLIS * 30);
+            mLastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * Give back unused leases of all windows.
+         */
+        private void release()
+        {
+            mDay.release();
+            mWeek.release();
+            mMonth.release();
+        }
+    }
+
+    /**
+     * Locally held lease on a central quota window counter.
+     */
+    private class QuotaWindow
+    {
+        private final String mDocumentId;
+        private final long mSizeMillis;
+        private volatile Lease mLease = new Lease(0L, 0L);
+
+        /**
+         * Time before which no new lease will be requested for an exhausted counter.
+         */
+        private volatile long mRetryAfter = 0L;
+
+        /**
+         * Time before which no new lease will be requested after the central counter could not be reached.
+         */
+        private volatile long mFailOpenUntil = 0L;
+
+        private QuotaWindow(String documentId, long sizeMillis)
+        {
+            mDocumentId = documentId;
+            mSizeMillis = sizeMillis;
+        }
+
+        /**
+         * Take one request from the current lease, leasing a new chunk from the central counter if necessary.
+         *
+         * @param now current time
+         * @param limit quota limit of this window (0 or less means unlimited)
+         * @return lease the request was taken from or null if the quota is exhausted
+         */
+        private Lease take(long now, long limit)
+        {
+            Lease lease = mLease;
+            if (isCurrent(lease, now) && lease.tryTake()) {
+                return lease;
+            }
+            if (now < mFailOpenUntil) {
+                return UNCOUNTED;
+            }
+
+            synchronized (this) {
+                while (true) {
+                    lease = mLease;
+                    if (isCurrent(lease, now) && lease.tryTake()) {
+                        return lease;
+                    }
+                    if (now < mFailOpenUntil) {
+                        return UNCOUNTED;
+                    }
+                    if (limit > 0 && isCurrent(lease, now) && now < mRetryAfter) {
+                        return null;
+                    }
+
+                    try {
+                        lease = acquire(now, limit);
+                    } catch (Exception e) {
+                        // searches depend on the same cluster and will fail with a proper error anyway
+                        // back off instead of hitting the unavailable cluster on every request
+                        Configured.getSysLogger().error("Failed to lease API quota", e);
+                        mFailOpenUntil = now + mRetryInterval;
+                        return UNCOUNTED;
+                    }
+
+                    mLease = lease;
+                    if (lease.mRemaining.get() == 0) {
+                        mRetryAfter = now + mRetryInterval;
+                        return null;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Give back the unused part of the current lease to the central counter.
+         */
+        private synchronized void release()
+        {
+            final Lease lease = mLease;
+            mLease = new Lease(0L, 0L);
+
+            final long unused = lease.mRemaining.getAndSet(0L);
+            if (unused > 0) {
+                releaseToCounter(lease.mStart, unused);
+            }
+        }
+
+        /**
+         * Give back a single request taken from the given lease. If the lease has been replaced
+         * in the meantime, the request is given back to the central counter instead.
+         *
+         * @param lease lease the request was taken from
+         */
+        private void giveBack(Lease lease)
+        {
+            if (UNCOUNTED == lease) {
+                return;
+            }
+            synchronized (this) {
+                if (mLease == lease) {
+                    lease.mRemaining.incrementAndGet();
+                    return;
+                }
+            }
+            releaseToCounter(lease.mStart, 1L);
+        }
+
+        /**
+         * Subtract unused requests from the central counter.
+         *
+         * @param start start of the counter window the requests were leased in
+         * @param amount number of unused requests
+         */
+        private void releaseToCounter(long start, long amount)
+        {
+            final Map<String, Object> params = new HashMap<>();
+            params.put("start", start);
+            params.put("amount", amount);
+            try {
+                Configured.getClient().update(new UpdateRequest(mIndexName, TYPE, mDocumentId)
+                        .script(new Script(ScriptType.INLINE, "painless", RELEASE_SCRIPT, params))
+                        .retryOnConflict(5));
+            } catch (Exception e) {
+                Configured.getSysLogger().error("Failed to release API quota lease", e);
+            }
+        }
+
+        /**
+         * Lease a new chunk of requests from the central counter.
+         *
+         * @param now current time
+         * @param limit quota limit of this window (0 or less means unlimited)
+         * @return new lease (may be empty if the quota is exhausted)
+         */
+        private Lease acquire(long now, long limit)
+        {
+            final Map<String, Object> params = new HashMap<>();
+            params.put("now", now);
+            params.put("window", mSizeMillis);
+            params.put("amount", mLeaseSize);
+            params.put("limit", limit);
+
+            final UpdateResponse response = Configured.getClient().update(new UpdateRequest(mIndexName, TYPE, mDocumentId)
+                    .script(new Script(ScriptType.INLINE, "painless", LEASE_SCRIPT, params))
+                    .scriptedUpsert(true)
+                    .upsert(Collections.<String, Object>emptyMap())
+                    .retryOnConflict(5)
+                    .fetchSource(true));
+
+            final Map<String, Object> source = response.getGetResult().sourceAsMap();
+            return new Lease(((Number) source.get("start")).longValue(), ((Number) source.get("grant")).longValue());
+        }
+
+        private boolean isCurrent(Lease lease, long now)
+        {
+            return now - lease.mStart <= mSizeMillis;
+        }
+    }
+
+    /**
+     * Chunk of requests leased from a central quota window counter.
+     */
+    private static class Lease
+    {
+        /**
+         * Start of the central quota window this lease belongs to.
+         */
+        private final long mStart;
+        private final AtomicLong mRemaining;
+
+        private Lease(long start, long amount)
+        {
+            mStart = start;
+            mRemaining = new AtomicLong(amount);
+        }
+
+        private boolean tryTake()
+        {
+            long value;
+            do {
+                value = mRemaining.get();
+                if (value <= 0) {
+                    return false;
+                }
+            } while (!mRemaining.compareAndSet(value, value - 1));
+            return true;
+        }
+
+    }
+}
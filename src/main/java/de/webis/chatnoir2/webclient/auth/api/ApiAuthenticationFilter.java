@@ -34,8 +34,9 @@ import de.webis.chatnoir2.webclient.api.exceptions.UserErrorException;
 import de.webis.chatnoir2.webclient.auth.ChatNoirAuthenticationFilter;
 import de.webis.chatnoir2.webclient.auth.ChatNoirAuthenticationFilter.AuthFilter;
 import de.webis.chatnoir2.webclient.auth.ChatNoirWebSessionManager;
-import de.webis.chatnoir2.webclient.model.api.ApiKeyModel;
+import de.webis.chatnoir2.webclient.model.api.ApiKeyPolicy;
 import de.webis.chatnoir2.webclient.util.Configured;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationToken;
@@ -124,17 +125,10 @@ public class ApiAuthenticationFilter extends ChatNoirAuthenticationFilter
     {
         WebSubject subject = (WebSubject) SecurityUtils.getSubject();
         if (subject.isAuthenticated()) {
-            // validate user quota
-            DefaultWebSecurityManager securityManager = (DefaultWebSecurityManager) SecurityUtils.getSecurityManager();
-            ChatNoirWebSessionManager sessionManager  = (ChatNoirWebSessionManager) securityManager.getSessionManager();
-            if (!sessionManager.validateApiSessionQuota(subject)) {
-                throw new QuotaExceededException("API user quota exceeded");
-            }
-
             // validate remote IP address
-            ApiKeyModel userModel = ApiTokenRealm.getUserModel(subject);
-            assert userModel != null;
-            Set<InetAddress> remoteHosts = userModel.getRemoteHosts();
+            ApiKeyPolicy policy = ApiTokenRealm.getKeyPolicy(subject);
+            assert policy != null;
+            Set<InetAddress> remoteHosts = policy.getRemoteHosts();
             if (null != remoteHosts && !remoteHosts.isEmpty()) {
                 InetAddress ip = InetAddress.getByName(request.getRemoteHost());
 
@@ -154,9 +148,16 @@ public class ApiAuthenticationFilter extends ChatNoirAuthenticationFilter
                 }
             }
 
-            sessionManager.incrementApiQuotaUsage(subject.getSession());
+            // validate and update user quota
+            DefaultWebSecurityManager securityManager = (DefaultWebSecurityManager) SecurityUtils.getSecurityManager();
+            ChatNoirWebSessionManager sessionManager  = (ChatNoirWebSessionManager) securityManager.getSessionManager();
+            if (!sessionManager.acquireApiQuota(subject)) {
+                throw new QuotaExceededException("API user quota exceeded");
+            }
         }
 
+        final RequestTrace trace = RequestTrace.get(request);
+        trace.record("auth", trace.getElapsedTime());
         super.executeChain(request, response, chain);
     }
 
@@ -26,6 +26,7 @@
 package de.webis.chatnoir2.webclient.auth.api;
 
 import de.webis.chatnoir2.webclient.model.api.ApiKeyModel;
+import de.webis.chatnoir2.webclient.model.api.ApiKeyPolicy;
 import de.webis.chatnoir2.webclient.util.Configured;
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationException;
@@ -39,11 +40,14 @@ import org.apache.shiro.mgt.RealmSecurityManager;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.realm.Realm;
 import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.apache.shiro.subject.Subject;
 
 import java.io.Serializable;
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Shiro realm for API keys.
@@ -52,6 +56,27 @@ public class ApiTokenRealm extends AuthorizingRealm implements Serializable
 {
     public static final String PRINCIPALS_CACHE_NAME = ApiTokenRealm.class.getName() + "-0-principals";
 
+    /**
+     * Number of lock stripes for guarding principals cache updates.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Lock stripes for guarding principals cache updates.
+     */
+    private static final Object[] sLockStripes = new Object[LOCK_STRIPES];
+
+    /**
+     * Principal loads which are currently in progress by API key.
+     */
+    private static final Map<String, CompletableFuture<Map<String, Object>>> sPendingLoads = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            sLockStripes[i] = new Object();
+        }
+    }
+
     public ApiTokenRealm()
     {
         setAuthenticationTokenClass(ApiKeyAuthenticationToken.class);
@@ -70,29 +95,87 @@ public class ApiTokenRealm extends AuthorizingRealm implements Serializable
     }
 
     /**
-     * Helper method for refreshing principals cache from API token index.
+     * Refresh the principals cache entry of an API key from the API token index.
+     *
+     * Concurrent refreshes of the same key are coalesced, so only one of them actually loads
+     * the key from the index and all others wait for its result. Refreshes of different keys
+     * proceed in parallel.
      *
      * @param apiKey API token for which to refresh the principals cache
+     * @return refreshed principal data
+     * @throws AuthenticationException if the API key is invalid, revoked or expired
+     */
+    private Map<String, Object> refreshPrincipalsCache(String apiKey)
+    {
+        final CompletableFuture<Map<String, Object>> load = new CompletableFuture<>();
+        final CompletableFuture<Map<String, Object>> pendingLoad = sPendingLoads.putIfAbsent(apiKey, load);
+        if (null != pendingLoad) {
+            try {
+                return pendingLoad.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            final Map<String, Object> principalData = loadPrincipalData(apiKey);
+            synchronized (getLock(apiKey)) {
+                // don't resurrect entries which have been invalidated while we were loading
+                if (sPendingLoads.get(apiKey) == load) {
+                    getPrincipalsCache().put(apiKey, principalData);
+                }
+            }
+            load.complete(principalData);
+            return principalData;
+        } catch (Throwable e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            sPendingLoads.remove(apiKey, load);
+        }
+    }
+
+    /**
+     * Load and validate principal data of an API key from the API token index.
+     *
+     * @param apiKey API token to load
+     * @return principal data
+     * @throws AuthenticationException if the API key is invalid, revoked or expired
      */
-    @SuppressWarnings("unchecked")
-    private void refreshPrincipalsCache(String apiKey)
+    private static Map<String, Object> loadPrincipalData(String apiKey)
     {
         ApiKeyModel userModel = new ApiKeyModel();
         if (!userModel.loadById(apiKey)) {
             throw new AuthenticationException("Invalid API key");
         }
-        if (userModel.isRevoked()) {
+        ApiKeyPolicy policy = new ApiKeyPolicy(userModel);
+        if (policy.isRevoked()) {
             throw new AuthenticationException("API key has been revoked");
         }
-        LocalDateTime expiryDate = userModel.getExpiryDate();
-        if (null != expiryDate && expiryDate.isBefore(LocalDateTime.now())) {
+        if (policy.isExpired()) {
             throw new AuthenticationException("API key has expired");
         }
 
         Map<String, Object> principalData = new HashMap<>();
         principalData.put("model", userModel);
+        principalData.put("policy", policy);
+        return principalData;
+    }
 
-        getPrincipalsCache().put(apiKey, principalData);
+    /**
+     * Get the lock stripe guarding cache updates of an API key.
+     *
+     * @param apiKey API key
+     * @return lock object
+     */
+    private static Object getLock(String apiKey)
+    {
+        return sLockStripes[(apiKey.hashCode() & 0x7fffffff) % sLockStripes.length];
     }
 
     /**
@@ -106,21 +189,19 @@ public class ApiTokenRealm extends AuthorizingRealm implements Serializable
         RealmSecurityManager securityManager = ((RealmSecurityManager) SecurityUtils.getSecurityManager());
 
         String apiKey = (String) subject.getPrincipal();
-        Cache<String, Map<String, Object>> cache;
-        synchronized (apiKey.intern()) {
-            cache = securityManager.getCacheManager().getCache(PRINCIPALS_CACHE_NAME);
-            if (null == cache.get(apiKey)) {
-                Collection<Realm> realms = securityManager.getRealms();
-                for (Realm r : realms) {
-                    if (r instanceof ApiTokenRealm) {
-                        ((ApiTokenRealm) r).refreshPrincipalsCache(apiKey);
-                        break;
-                    }
-                }
-            }
+        Cache<String, Map<String, Object>> cache = securityManager.getCacheManager().getCache(PRINCIPALS_CACHE_NAME);
+        Map<String, Object> principalData = cache.get(apiKey);
+        if (null != principalData) {
+            return principalData;
+        }
 
-            return cache.get(apiKey);
+        Collection<Realm> realms = securityManager.getRealms();
+        for (Realm r : realms) {
+            if (r instanceof ApiTokenRealm) {
+                return ((ApiTokenRealm) r).refreshPrincipalsCache(apiKey);
+            }
         }
+        return null;
     }
 
     /**
@@ -138,39 +219,103 @@ public class ApiTokenRealm extends AuthorizingRealm implements Serializable
         return null;
     }
 
+    /**
+     * Get the effective policy of a subject's API key.
+     *
+     * @param subject subject
+     * @return {@link ApiKeyPolicy} for <tt>subject</tt>
+     */
+    public static ApiKeyPolicy getKeyPolicy(Subject subject)
+    {
+        Map<String, Object> principals = getPrincipalFields(subject);
+        if (null == principals) {
+            return null;
+        }
+
+        ApiKeyPolicy policy = (ApiKeyPolicy) principals.get("policy");
+        if (null == policy && null != principals.get("model")) {
+            // entry restored from a cache written before policies existed
+            policy = new ApiKeyPolicy((ApiKeyModel) principals.get("model"));
+        }
+        return policy;
+    }
+
+    /**
+     * Invalidate cached principal data of an API key and of all keys which have it in their trust chain.
+     * Needs to be called whenever an API key is modified, so that changes take effect immediately.
+     *
+     * @param apiKey modified API key
+     */
+    public static void invalidateApiKey(String apiKey)
+    {
+        RealmSecurityManager securityManager = ((RealmSecurityManager) SecurityUtils.getSecurityManager());
+        for (Realm r : securityManager.getRealms()) {
+            if (r instanceof ApiTokenRealm) {
+                ((ApiTokenRealm) r).clearCachedPrincipalsWithDescendants(apiKey);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Clear cached principal data of an API key and all its cached descendants.
+     *
+     * @param apiKey API key
+     */
+    private void clearCachedPrincipalsWithDescendants(String apiKey)
+    {
+        List<String> invalidKeys = new ArrayList<>();
+        invalidKeys.add(apiKey);
+
+        Cache<String, Map<String, Object>> cache = getPrincipalsCache();
+        if (null != cache) {
+            for (String key : cache.keys()) {
+                Map<String, Object> principalData = cache.get(key);
+                if (null == principalData) {
+                    continue;
+                }
+                ApiKeyPolicy policy = (ApiKeyPolicy) principalData.get("policy");
+                if (null == policy || policy.hasAncestor(apiKey)) {
+                    invalidKeys.add(key);
+                }
+            }
+        }
+
+        for (String key : invalidKeys) {
+            clearCachedPrincipals(new SimplePrincipalCollection(key, getName()));
+        }
+    }
+
     @Override
     protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException
     {
         String apiKey = (String) token.getPrincipal();
-        synchronized (apiKey.intern()) {
-            try {
-                refreshPrincipalsCache(apiKey);
-            } catch (Throwable e) {
-                if (!(e instanceof AuthenticationException)) {
-                    Configured.getSysLogger().error("Error during authentication", e);
-                } else {
-                    throw e;
-                }
+        try {
+            refreshPrincipalsCache(apiKey);
+        } catch (Throwable e) {
+            if (!(e instanceof AuthenticationException)) {
+                Configured.getSysLogger().error("Error during authentication", e);
+            } else {
+                throw e;
             }
-            return new SimpleAuthenticationInfo(apiKey, apiKey, getName());
         }
+        return new SimpleAuthenticationInfo(apiKey, apiKey, getName());
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals)
     {
         String apiKey = (String) principals.getPrimaryPrincipal();
-        Map<String, Object> principalData;
-        synchronized (apiKey.intern()) {
-            principalData = getPrincipalsCache().get(apiKey);
-            if (null == principalData) {
-                refreshPrincipalsCache(apiKey);
-                principalData = getPrincipalsCache().get(apiKey);
-            }
+        Map<String, Object> principalData = getPrincipalsCache().get(apiKey);
+        if (null == principalData) {
+            principalData = refreshPrincipalsCache(apiKey);
+        }
 
-            return new SimpleAuthorizationInfo(((ApiKeyModel) principalData.get("model")).getRoles());
+        ApiKeyPolicy policy = (ApiKeyPolicy) principalData.get("policy");
+        if (null != policy) {
+            return new SimpleAuthorizationInfo(policy.getRoles());
         }
+        return new SimpleAuthorizationInfo(((ApiKeyModel) principalData.get("model")).getRoles());
     }
 
     /**
@@ -195,7 +340,10 @@ public class ApiTokenRealm extends AuthorizingRealm implements Serializable
         }
 
         String apiKey = (String) principals.getPrimaryPrincipal();
-        synchronized (apiKey.intern()) {
+        synchronized (getLock(apiKey)) {
+            // abandon pending loads, so they cannot write stale data back to the cache
+            sPendingLoads.remove(apiKey);
+
             Cache<String, Map<String, Object>> credentialsCache = getPrincipalsCache();
             if (null != credentialsCache) {
                 credentialsCache.remove(apiKey);
@@ -46,7 +46,7 @@ import javax.servlet.http.HttpServletResponse;
  * Catch and handle any exceptions that might occur on the way.
  * This filter needs to be at the very top of the filter chain.
  */
-@WebFilter(filterName="ErrorFilter", urlPatterns = ErrorFilter.ROUTE)
+@WebFilter(filterName="ErrorFilter", urlPatterns = ErrorFilter.ROUTE, asyncSupported = true)
 public class ErrorFilter extends ShiroFilter
 {
     static final String ROUTE = "/*";
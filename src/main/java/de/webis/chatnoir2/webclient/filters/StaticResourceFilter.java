@@ -39,7 +39,7 @@ import javax.servlet.annotation.WebFilter;
 /**
  * Filter requests to serve static content.
  */
-@WebFilter(filterName = "StaticResourceFilter", urlPatterns = {
+@WebFilter(filterName = "StaticResourceFilter", asyncSupported = true, urlPatterns = {
         StaticResourceFilter.ROUTE1,
         StaticResourceFilter.ROUTE2,
         StaticResourceFilter.ROUTE3,
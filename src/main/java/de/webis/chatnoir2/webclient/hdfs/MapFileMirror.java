@@ -0,0 +1,348 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.hdfs;
+
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Local disk mirror of MapFile partitions.
+ *
+ * On first access of a partition, its index file (and optionally its data file) is copied
+ * from HDFS to a local directory in the background. Until the mirror is complete, or if
+ * mirroring fails, readers are opened on HDFS directly. Readers of partitions whose index
+ * has been mirrored, but not their data, look up keys in the local index and read the
+ * records from HDFS. Local files are served from the OS page cache once they are hot.
+ *
+ * The total size of mirrored data files can be limited. If mirroring another data file would
+ * exceed the limit, the data files of the least recently opened partitions are deleted and
+ * those partitions go back to reading their records from HDFS.
+ */
+public class MapFileMirror
+{
+    /**
+     * Hadoop configuration key for passing the remote data file path to {@link MirroredIndexReader}.
+     */
+    private static final String REMOTE_DATA_PATH_KEY = MapFileMirror.class.getName() + ".remote_data_path";
+
+    /**
+     * Mirror state of a partition.
+     */
+    private enum State
+    {
+        PENDING,
+        INDEX,
+        FULL,
+        FAILED
+    }
+
+    private final Configuration mHadoopConfig;
+    private final java.nio.file.Path mLocalRoot;
+    private final boolean mMirrorData;
+    private final long mMaxDataSize;
+    private final Map<Path, State> mStates = new ConcurrentHashMap<>();
+
+    /**
+     * Sizes of mirrored data files by local partition directory in least recently opened order.
+     */
+    private final LinkedHashMap<java.nio.file.Path, Long> mDataSizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long mTotalDataSize = 0L;
+    private final ExecutorService mMirrorExecutor;
+
+    /**
+     * @param hadoopConfig Hadoop configuration
+     * @param localRoot local directory to mirror partitions to
+     * @param mirrorData whether to mirror data files in addition to index files
+     * @param maxDataSize maximum total size of mirrored data files in bytes (0 or less means unlimited)
+     */
+    public MapFileMirror(Configuration hadoopConfig, java.nio.file.Path localRoot, boolean mirrorData, long maxDataSize)
+    {
+        mHadoopConfig = hadoopConfig;
+        mLocalRoot = localRoot;
+        mMirrorData = mirrorData;
+        mMaxDataSize = maxDataSize;
+        mMirrorExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MapFileMirror");
+            t.setDaemon(true);
+            return t;
+        });
+        if (mMirrorData) {
+            mMirrorExecutor.submit(this::scanDataFiles);
+        }
+    }
+
+    /**
+     * Open a reader for the given HDFS MapFile, preferring the local mirror if available.
+     * Mirroring of the partition is scheduled if it has not been mirrored yet.
+     *
+     * @param hdfsPath HDFS MapFile path
+     * @return opened reader
+     * @throws IOException if the reader could not be opened
+     */
+    public MapFile.Reader openReader(Path hdfsPath) throws IOException
+    {
+        final State state = mStates.computeIfAbsent(hdfsPath, p -> {
+            mMirrorExecutor.submit(() -> mirror(p));
+            return State.PENDING;
+        });
+
+        if (State.INDEX == state || State.FULL == state) {
+            final java.nio.file.Path localDir = getLocalDir(hdfsPath);
+            final Path localPath = new Path(localDir.toUri());
+            try {
+                if (State.FULL == state) {
+                    synchronized (mDataSizes) {
+                        // update access order
+                        mDataSizes.get(localDir);
+                    }
+                    return new MapFile.Reader(localPath, mHadoopConfig);
+                }
+
+                final Configuration conf = new Configuration(mHadoopConfig);
+                conf.set(REMOTE_DATA_PATH_KEY, new Path(hdfsPath, MapFile.DATA_FILE_NAME).toString());
+                return new MirroredIndexReader(localPath, conf);
+            } catch (IOException e) {
+                Configured.getSysLogger().warn(String.format(
+                        "Failed to open local mirror of %s, falling back to HDFS", hdfsPath), e);
+                mStates.put(hdfsPath, State.FAILED);
+            }
+        }
+
+        return new MapFile.Reader(hdfsPath, mHadoopConfig);
+    }
+
+    /**
+     * Stop all pending mirroring tasks.
+     */
+    public void close()
+    {
+        mMirrorExecutor.shutdownNow();
+    }
+
+    /**
+     * Mirror the given partition to local disk.
+     *
+     * @param hdfsPath HDFS MapFile path
+     */
+    private void mirror(Path hdfsPath)
+    {
+        final java.nio.file.Path localDir = getLocalDir(hdfsPath);
+        try {
+            Files.createDirectories(localDir);
+
+            final FileSystem remoteFs = hdfsPath.getFileSystem(mHadoopConfig);
+            mirrorFile(remoteFs, remoteFs.getFileStatus(new Path(hdfsPath, MapFile.INDEX_FILE_NAME)),
+                    localDir.resolve(MapFile.INDEX_FILE_NAME));
+
+            State state = State.INDEX;
+            if (mMirrorData) {
+                final FileStatus dataStatus = remoteFs.getFileStatus(new Path(hdfsPath, MapFile.DATA_FILE_NAME));
+                final java.nio.file.Path localDataFile = localDir.resolve(MapFile.DATA_FILE_NAME);
+                if (reserveDataSize(localDir, dataStatus.getLen())) {
+                    mirrorFile(remoteFs, dataStatus, localDataFile);
+                    state = State.FULL;
+                } else {
+                    Files.deleteIfExists(localDataFile);
+                }
+            }
+
+            mStates.put(hdfsPath, state);
+        } catch (Throwable e) {
+            Configured.getSysLogger().error(String.format("Failed to mirror %s to local disk", hdfsPath), e);
+            mStates.put(hdfsPath, State.FAILED);
+            releaseDataSize(localDir);
+        }
+    }
+
+    /**
+     * Register data files left over from previous runs, so they count against the data size limit.
+     * Data files beyond the limit are deleted.
+     */
+    private void scanDataFiles()
+    {
+        if (!Files.isDirectory(mLocalRoot)) {
+            return;
+        }
+
+        try (Stream<java.nio.file.Path> files = Files.walk(mLocalRoot)) {
+            files.filter(f -> f.getFileName().toString().equals(MapFile.DATA_FILE_NAME)).forEach(f -> {
+                try {
+                    if (!reserveDataSize(f.getParent(), Files.size(f))) {
+                        Files.deleteIfExists(f);
+                    }
+                } catch (IOException e) {
+                    Configured.getSysLogger().warn(String.format("Failed to register mirrored data file %s", f), e);
+                }
+            });
+        } catch (IOException e) {
+            Configured.getSysLogger().error("Failed to scan local mirror for data files", e);
+        }
+    }
+
+    /**
+     * Reserve space for a partition's data file, evicting the data files of the least
+     * recently opened partitions if necessary.
+     *
+     * @param localDir local mirror directory of the partition
+     * @param size data file size in bytes
+     * @return false if the data file alone exceeds the data size limit
+     */
+    private boolean reserveDataSize(java.nio.file.Path localDir, long size)
+    {
+        if (mMaxDataSize > 0 && size > mMaxDataSize) {
+            releaseDataSize(localDir);
+            return false;
+        }
+
+        final List<java.nio.file.Path> evicted = new ArrayList<>();
+        synchronized (mDataSizes) {
+            final Long previous = mDataSizes.remove(localDir);
+            if (null != previous) {
+                mTotalDataSize -= previous;
+            }
+
+            final Iterator<Map.Entry<java.nio.file.Path, Long>> it = mDataSizes.entrySet().iterator();
+            while (mMaxDataSize > 0 && mTotalDataSize + size > mMaxDataSize && it.hasNext()) {
+                final Map.Entry<java.nio.file.Path, Long> eldest = it.next();
+                mTotalDataSize -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+
+            mDataSizes.put(localDir, size);
+            mTotalDataSize += size;
+        }
+
+        for (java.nio.file.Path dir : evicted) {
+            evictDataFile(dir);
+        }
+        return true;
+    }
+
+    /**
+     * Forget the reserved data file size of a partition.
+     *
+     * @param localDir local mirror directory of the partition
+     */
+    private void releaseDataSize(java.nio.file.Path localDir)
+    {
+        synchronized (mDataSizes) {
+            final Long previous = mDataSizes.remove(localDir);
+            if (null != previous) {
+                mTotalDataSize -= previous;
+            }
+        }
+    }
+
+    /**
+     * Delete the mirrored data file of a partition and read its records from HDFS again.
+     *
+     * @param localDir local mirror directory of the partition
+     */
+    private void evictDataFile(java.nio.file.Path localDir)
+    {
+        // switch new readers to HDFS data first, already opened readers keep the unlinked file open
+        mStates.replaceAll((hdfsPath, state) ->
+                State.FULL == state && getLocalDir(hdfsPath).equals(localDir) ? State.INDEX : state);
+        try {
+            Files.deleteIfExists(localDir.resolve(MapFile.DATA_FILE_NAME));
+        } catch (IOException e) {
+            Configured.getSysLogger().warn(String.format("Failed to evict mirrored data file in %s", localDir), e);
+        }
+    }
+
+    /**
+     * Copy a single file from HDFS to local disk unless an up-to-date copy already exists.
+     * A local copy is up to date if its size and modification time match the remote file.
+     *
+     * @param remoteFs remote file system
+     * @param status status of the remote file
+     * @param localFile local target file
+     */
+    private void mirrorFile(FileSystem remoteFs, FileStatus status, java.nio.file.Path localFile) throws IOException
+    {
+        final FileTime remoteModified = FileTime.fromMillis(status.getModificationTime());
+        if (Files.exists(localFile) && Files.size(localFile) == status.getLen() &&
+                Files.getLastModifiedTime(localFile).equals(remoteModified)) {
+            return;
+        }
+
+        // copy to temporary file first, so readers never see partial files
+        final java.nio.file.Path tmpFile = localFile.resolveSibling(localFile.getFileName() + ".tmp");
+        Files.deleteIfExists(tmpFile);
+        FileUtil.copy(remoteFs, status.getPath(), FileSystem.getLocal(mHadoopConfig).getRaw(),
+                new Path(tmpFile.toUri()), false, mHadoopConfig);
+        Files.setLastModifiedTime(tmpFile, remoteModified);
+        Files.move(tmpFile, localFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param hdfsPath HDFS MapFile path
+     * @return local mirror directory of the given MapFile
+     */
+    private java.nio.file.Path getLocalDir(Path hdfsPath)
+    {
+        return mLocalRoot.resolve(hdfsPath.toUri().getPath().replaceFirst("^/+", ""));
+    }
+
+    /**
+     * MapFile reader which reads its index from a local mirror and its data from HDFS.
+     */
+    private static class MirroredIndexReader extends MapFile.Reader
+    {
+        private MirroredIndexReader(Path localDir, Configuration conf) throws IOException
+        {
+            super(localDir, conf);
+        }
+
+        @Override
+        protected SequenceFile.Reader createDataFileReader(Path dataFile, Configuration conf,
+                                                           SequenceFile.Reader.Option... options) throws IOException
+        {
+            return super.createDataFileReader(new Path(conf.get(REMOTE_DATA_PATH_KEY)), conf, options);
+        }
+    }
+}
@@ -36,8 +36,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.UUID;
+import java.nio.file.Paths;
+import java.util.*;
 
 /**
  * Tools for retrieving WARC records from Webis MapFiles.
@@ -48,20 +48,55 @@ public class MapFileReader extends Configured
     private static final String URI_OUTPUT_NAME  = "uri";
 
     private static Configuration mHadoopConfig = new Configuration();
-    private static HashMap<Path, MapFile.Reader> mMapfileReaders = new HashMap<>();
+    private static volatile MapFileReaderPool mReaderPool = null;
+    private static MapFileMirror mMirror = null;
 
-    private static MapFileReader mInstance = null;
+    private static volatile MapFileReader mInstance = null;
 
     private MapFileReader() {}
 
-    public static void init()
+    public static synchronized void init()
     {
         if (null != mInstance) {
             cleanUp();
         }
 
+        mHadoopConfig.set("fs.defaultFS", getConf().getString("hdfs.defaultFS"));
+
+        MapFileReaderPool.ReaderFactory readerFactory = path -> new MapFile.Reader(path, mHadoopConfig);
+        final String mirrorPath = getConf().getString("hdfs.local_mirror.path", "");
+        if (!mirrorPath.isEmpty()) {
+            mMirror = new MapFileMirror(mHadoopConfig, Paths.get(mirrorPath),
+                    getConf().getBoolean("hdfs.local_mirror.mirror_data", false),
+                    getConf().getLong("hdfs.local_mirror.max_data_size", 0L));
+            readerFactory = mMirror::openReader;
+        }
+
+        final ConfigLoader.Config poolConfig = getConf().get("hdfs.reader_pool");
+        mReaderPool = new MapFileReaderPool(readerFactory,
+                poolConfig.getInteger("max_readers_per_partition", 4),
+                poolConfig.getInteger("max_open_readers", 256),
+                poolConfig.getLong("idle_timeout", 300000L),
+                poolConfig.getLong("borrow_timeout", 10000L));
+
+        // publish instance only after the reader pool is ready
         mInstance = new MapFileReader();
-        mHadoopConfig.set("fs.defaultFS", mInstance.getConf().getString("hdfs.defaultFS"));
+    }
+
+    /**
+     * Initialize the reader pool unless it has already been initialized.
+     * Unlike {@link #init()}, this never replaces a reader pool which may be in use.
+     */
+    public static void ensureInitialized()
+    {
+        if (null != mInstance) {
+            return;
+        }
+        synchronized (MapFileReader.class) {
+            if (null == mInstance) {
+                init();
+            }
+        }
     }
 
     public static boolean isInitialized()
@@ -69,25 +104,37 @@ public class MapFileReader extends Configured
         return null != mInstance;
     }
 
+    /**
+     * Close all open MapFile readers.
+     */
+    public static synchronized void shutdown()
+    {
+        cleanUp();
+        mInstance = null;
+    }
+
+    /**
+     * @return MapFile reader pool or null if not initialized
+     */
+    public static MapFileReaderPool getReaderPool()
+    {
+        return mReaderPool;
+    }
+
     private static void cleanUp()
     {
         if (null == mInstance) {
             return;
         }
 
-        for (Path p : mMapfileReaders.keySet()) {
-            try {
-                mMapfileReaders.get(p).close();
-            } catch (IOException ignored) {}
+        if (null != mReaderPool) {
+            mReaderPool.close();
+            mReaderPool = null;
+        }
+        if (null != mMirror) {
+            mMirror.close();
+            mMirror = null;
         }
-        mMapfileReaders.clear();
-    }
-
-    @Override
-    protected void finalize() throws Throwable
-    {
-        cleanUp();
-        super.finalize();
     }
 
     /**
@@ -99,7 +146,7 @@ public class MapFileReader extends Configured
      */
     public static JSONObject getDocument(final String origId, final String index)
     {
-        final UUID uuid = WebisUUID.generateUUID(mInstance.getConf()
+        final UUID uuid = WebisUUID.generateUUID(getConf()
                 .get("hdfs.mapfiles")
                 .get(index)
                 .getString("prefix"), origId);
@@ -116,30 +163,72 @@ public class MapFileReader extends Configured
      */
     public static JSONObject getDocument(final UUID recordUUID, final String index)
     {
-        if (null == mInstance.getConf()) {
-            throw new RuntimeException("MapFileReader not initialized");
-        }
+        ensureInitialized();
 
-        final ConfigLoader.Config mapfileConfig = mInstance.getConf().get("hdfs.mapfiles").get(index);
+        final ConfigLoader.Config mapfileConfig = getConf().get("hdfs.mapfiles").get(index);
         final int partition = getPartition(recordUUID.toString(), mapfileConfig.getInteger("partitions"));
         String inputPathStr = String.format("%s/%s-r-%05d", mapfileConfig.getString("path"),
                 DATA_OUTPUT_NAME, partition);
 
         try {
             final Path inputPath  = new Path(inputPathStr);
-            MapFile.Reader reader = mMapfileReaders.get(inputPath);
-            if (null == reader) {
-                    reader = new MapFile.Reader(inputPath, mHadoopConfig);
-                mMapfileReaders.put(inputPath, reader);
-            }
+            final Text value = mReaderPool.withReader(inputPath,
+                    reader -> (Text) reader.get(new Text(recordUUID.toString()), new Text()));
 
-            return new JSONObject(reader.get(new Text(recordUUID.toString()), new Text()).toString());
+            return new JSONObject(value.toString());
 
         } catch (IOException | JSONException | NullPointerException e) {
             return null;
         }
     }
 
+    /**
+     * Retrieve multiple documents from MapFile using their UUIDs.
+     * Lookups are grouped by MapFile partition and each partition is read in a single pass
+     * with keys in ascending order, so the reader only needs to seek forward.
+     *
+     * @param recordUUIDs UUIDs of the documents
+     * @param index Elasticsearch index for which this MapFile provides documents
+     * @return map of retrieved documents by UUID (documents which could not be retrieved are omitted)
+     */
+    public static Map<UUID, JSONObject> getDocuments(final Collection<UUID> recordUUIDs, final String index)
+    {
+        ensureInitialized();
+
+        final ConfigLoader.Config mapfileConfig = getConf().get("hdfs.mapfiles").get(index);
+        final int numPartitions = mapfileConfig.getInteger("partitions");
+
+        // group keys by partition in ascending key order
+        final Map<Integer, SortedSet<String>> partitions = new HashMap<>();
+        for (UUID uuid : recordUUIDs) {
+            final String key = uuid.toString();
+            partitions.computeIfAbsent(getPartition(key, numPartitions), p -> new TreeSet<>()).add(key);
+        }
+
+        final Map<UUID, JSONObject> documents = new HashMap<>();
+        for (Map.Entry<Integer, SortedSet<String>> partition : partitions.entrySet()) {
+            final Path inputPath = new Path(String.format("%s/%s-r-%05d", mapfileConfig.getString("path"),
+                    DATA_OUTPUT_NAME, partition.getKey()));
+
+            try {
+                mReaderPool.withReader(inputPath, reader -> {
+                    final Text value = new Text();
+                    for (String key : partition.getValue()) {
+                        if (null == reader.get(new Text(key), value)) {
+                            continue;
+                        }
+                        try {
+                            documents.put(UUID.fromString(key), new JSONObject(value.toString()));
+                        } catch (JSONException ignored) {}
+                    }
+                    return null;
+                });
+            } catch (IOException ignored) {}
+        }
+
+        return documents;
+    }
+
     /**
      * Retrieve document UUID for given URL.
      *
@@ -149,9 +238,7 @@ public class MapFileReader extends Configured
      */
     public static UUID getUUIDForUrl(final String url, final String index)
     {
-        if (null == getConf()) {
-            throw new RuntimeException("MapFileReader not initialized");
-        }
+        ensureInitialized();
 
         final ConfigLoader.Config mapfileConfig = getConf().get("hdfs.mapfiles").get(index);
         final int partition = getPartition(url, mapfileConfig.getInteger("partitions"));
@@ -160,12 +247,9 @@ public class MapFileReader extends Configured
 
         try {
             final Path inputPath  = new Path(inputPathStr);
-            MapFile.Reader reader = mMapfileReaders.get(inputPath);
-            if (null == reader) {
-                reader = new MapFile.Reader(inputPath, mHadoopConfig);
-                mMapfileReaders.put(inputPath, reader);
-            }
-            String uuidStr = reader.get(new Text(url), new Text()).toString();
+            final Text value = mReaderPool.withReader(inputPath,
+                    reader -> (Text) reader.get(new Text(url), new Text()));
+            String uuidStr = value.toString();
             if (uuidStr.startsWith(DATA_OUTPUT_NAME)) {
                 // work around map file generation bug where we forgot to strip the data prefix
                 uuidStr = uuidStr.substring(DATA_OUTPUT_NAME.length());
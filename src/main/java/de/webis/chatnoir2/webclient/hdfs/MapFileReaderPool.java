@@ -0,0 +1,303 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.hdfs;
+
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of {@link MapFile.Reader} instances.
+ *
+ * A single MapFile reader must not be used by more than one thread at a time, so readers
+ * are checked out for exactly one lookup and returned to the pool afterwards. Readers are
+ * opened lazily up to a maximum number per partition and a global maximum of open handles.
+ * Readers which have been idle for too long are closed by a background task.
+ */
+public class MapFileReaderPool
+{
+    /**
+     * Factory for opening new readers.
+     */
+    @FunctionalInterface
+    public interface ReaderFactory
+    {
+        MapFile.Reader open(Path path) throws IOException;
+    }
+
+    /**
+     * Function to be applied to a checked-out reader.
+     */
+    @FunctionalInterface
+    public interface ReaderFunction<T>
+    {
+        T apply(MapFile.Reader reader) throws IOException;
+    }
+
+    private final ReaderFactory mReaderFactory;
+    private final int mMaxReadersPerPartition;
+    private final long mIdleTimeout;
+    private final long mBorrowTimeout;
+
+    /**
+     * Permits for open reader handles across all partitions.
+     */
+    private final Semaphore mOpenHandles;
+
+    private final Map<Path, Partition> mPartitions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService mEvictionExecutor;
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param readerFactory factory for opening new readers
+     * @param maxReadersPerPartition maximum number of concurrently used readers per partition
+     * @param maxOpenReaders maximum number of open readers in total
+     * @param idleTimeout time in milliseconds after which idle readers are closed
+     * @param borrowTimeout time in milliseconds to wait for a free reader
+     */
+    public MapFileReaderPool(ReaderFactory readerFactory, int maxReadersPerPartition, int maxOpenReaders,
+                             long idleTimeout, long borrowTimeout)
+    {
+        mReaderFactory = readerFactory;
+        mMaxReadersPerPartition = Math.max(1, maxReadersPerPartition);
+        mOpenHandles = new Semaphore(Math.max(1, maxOpenReaders), true);
+        mIdleTimeout = idleTimeout;
+        mBorrowTimeout = borrowTimeout;
+
+        mEvictionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "MapFileReaderPool-eviction");
+            t.setDaemon(true);
+            return t;
+        });
+        final long interval = Math.max(1000, idleTimeout / 2);
+        mEvictionExecutor.scheduleWithFixedDelay(this::evictIdleReaders, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check out a reader for the given MapFile path, apply a function to it and return it to the pool.
+     *
+     * @param path MapFile path
+     * @param function function to apply to the reader
+     * @return result of the function
+     * @throws IOException if no reader could be opened or checked out in time or the function failed
+     */
+    public <T> T withReader(Path path, ReaderFunction<T> function) throws IOException
+    {
+        final Partition partition = mPartitions.computeIfAbsent(path, p -> new Partition());
+        final PooledReader reader = borrowReader(path, partition);
+        try {
+            return function.apply(reader.mReader);
+        } finally {
+            returnReader(partition, reader);
+        }
+    }
+
+    /**
+     * @return number of currently open readers
+     */
+    public int getOpenReaders()
+    {
+        int open = 0;
+        for (Partition p : mPartitions.values()) {
+            open += p.mOpen.get();
+        }
+        return open;
+    }
+
+    /**
+     * @return number of readers which are currently checked out
+     */
+    public int getActiveReaders()
+    {
+        int active = 0;
+        for (Partition p : mPartitions.values()) {
+            active += mMaxReadersPerPartition - p.mPermits.availablePermits();
+        }
+        return active;
+    }
+
+    /**
+     * Close all idle readers and stop the eviction task.
+     * Readers which are still checked out will be closed when they are returned.
+     */
+    public void close()
+    {
+        mClosed = true;
+        mEvictionExecutor.shutdownNow();
+        for (Partition p : mPartitions.values()) {
+            PooledReader r;
+            while (null != (r = p.mIdle.pollFirst())) {
+                closeReader(p, r);
+            }
+        }
+    }
+
+    private PooledReader borrowReader(Path path, Partition partition) throws IOException
+    {
+        if (mClosed) {
+            throw new IOException("Reader pool is closed");
+        }
+
+        acquire(partition.mPermits, "Timeout waiting for MapFile reader for " + path);
+
+        // prefer the most recently used reader
+        PooledReader reader = partition.mIdle.pollFirst();
+        if (null != reader) {
+            return reader;
+        }
+
+        try {
+            if (!mOpenHandles.tryAcquire()) {
+                // make room by closing the least recently used idle reader
+                closeAnyIdleReader();
+                acquire(mOpenHandles, "Too many open MapFile readers");
+            }
+        } catch (IOException e) {
+            partition.mPermits.release();
+            throw e;
+        }
+
+        try {
+            reader = new PooledReader(mReaderFactory.open(path));
+            partition.mOpen.incrementAndGet();
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            mOpenHandles.release();
+            partition.mPermits.release();
+            throw e;
+        }
+    }
+
+    private void returnReader(Partition partition, PooledReader reader)
+    {
+        if (mClosed || mOpenHandles.hasQueuedThreads()) {
+            // hand the handle over to a waiting thread of another partition
+            closeReader(partition, reader);
+        } else {
+            reader.mLastUsed = System.currentTimeMillis();
+            partition.mIdle.offerFirst(reader);
+        }
+        partition.mPermits.release();
+    }
+
+    private void acquire(Semaphore semaphore, String errorMessage) throws IOException
+    {
+        try {
+            if (!semaphore.tryAcquire(mBorrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException(errorMessage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(errorMessage, e);
+        }
+    }
+
+    /**
+     * Close the least recently used idle reader of any partition.
+     */
+    private void closeAnyIdleReader()
+    {
+        Partition oldestPartition = null;
+        PooledReader oldest = null;
+        for (Partition p : mPartitions.values()) {
+            PooledReader r = p.mIdle.peekLast();
+            if (null != r && (null == oldest || r.mLastUsed < oldest.mLastUsed)) {
+                oldest = r;
+                oldestPartition = p;
+            }
+        }
+
+        if (null != oldest && oldestPartition.mIdle.remove(oldest)) {
+            closeReader(oldestPartition, oldest);
+        }
+    }
+
+    /**
+     * Close readers which have been idle for longer than the configured idle timeout.
+     */
+    private void evictIdleReaders()
+    {
+        final long threshold = System.currentTimeMillis() - mIdleTimeout;
+        try {
+            for (Partition p : mPartitions.values()) {
+                // idle readers are ordered by recency, so the stalest ones are at the end
+                PooledReader r;
+                while (null != (r = p.mIdle.peekLast()) && r.mLastUsed < threshold) {
+                    if (p.mIdle.remove(r)) {
+                        closeReader(p, r);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            Configured.getSysLogger().error("Failed to evict idle MapFile readers", e);
+        }
+    }
+
+    private void closeReader(Partition partition, PooledReader reader)
+    {
+        try {
+            reader.mReader.close();
+        } catch (IOException ignored) {
+        } finally {
+            partition.mOpen.decrementAndGet();
+            mOpenHandles.release();
+        }
+    }
+
+    /**
+     * Readers of a single MapFile partition.
+     */
+    private class Partition
+    {
+        private final Semaphore mPermits = new Semaphore(mMaxReadersPerPartition, true);
+        private final ConcurrentLinkedDeque<PooledReader> mIdle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger mOpen = new AtomicInteger(0);
+    }
+
+    /**
+     * Pooled reader with usage time stamp.
+     */
+    private static class PooledReader
+    {
+        private final MapFile.Reader mReader;
+        private volatile long mLastUsed = System.currentTimeMillis();
+
+        private PooledReader(MapFile.Reader reader)
+        {
+            mReader = reader;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.listeners;
+
+import de.webis.chatnoir2.webclient.resources.ConfigLoader;
+import de.webis.chatnoir2.webclient.search.SearchResultCache;
+import de.webis.chatnoir2.webclient.search.SimpleQueryTemplate;
+import de.webis.chatnoir2.webclient.util.ClusterClient;
+import de.webis.chatnoir2.webclient.util.Configured;
+import de.webis.chatnoir2.webclient.util.FileWatcher;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Watch the system configuration file if <tt>general.config_hot_reload</tt> is set (off by default) and
+ * apply changes without restart. A changed configuration is validated first and then
+ * published as a new snapshot, so requests which are already running are not affected.
+ */
+@WebListener
+public class ConfigReloadListener implements ServletContextListener
+{
+    /**
+     * Numeric settings in <tt>cluster.connection_pool</tt> which require a new client when changed.
+     */
+    private static final String[] CONNECTION_POOL_SETTINGS = {
+            "max_connections_per_host", "max_connections", "keep_alive",
+            "connect_timeout", "socket_timeout", "io_threads"
+    };
+
+    private FileWatcher mWatcher = null;
+
+    @Override
+    public void contextInitialized(ServletContextEvent event)
+    {
+        if (!Configured.getConf().getBoolean("general.config_hot_reload", false)) {
+            return;
+        }
+
+        try {
+            final Path configFile = ConfigLoader.getInstance().resolveConfigFile(ConfigLoader.DEFAULT_FILE_NAME);
+            mWatcher = new FileWatcher(configFile, ConfigReloadListener::reload);
+            mWatcher.start("ConfigReloadListener-watcher");
+        } catch (IOException e) {
+            Configured.getSysLogger().error("Cannot watch configuration file", e);
+            mWatcher = null;
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event)
+    {
+        if (null != mWatcher) {
+            mWatcher.stop();
+            mWatcher = null;
+        }
+    }
+
+    /**
+     * Reload the system configuration and rebuild state which depends on it.
+     */
+    private static void reload()
+    {
+        final ConfigLoader.Config oldConf = Configured.getConf();
+        final ConfigLoader.Config newConf;
+        try {
+            newConf = Configured.reloadConf(ConfigReloadListener::validate);
+        } catch (IOException | ConfigLoader.ParseException e) {
+            Configured.getSysLogger().error("Configuration change rejected: " + e.getMessage());
+            return;
+        }
+
+        // query templates are recompiled automatically once they are requested with the new configuration
+        SearchResultCache.clear();
+        if (clusterChanged(oldConf, newConf)) {
+            Configured.reconnectClient();
+        }
+
+        Configured.getSysLogger().info("Configuration reloaded");
+    }
+
+    /**
+     * Validate a new configuration before it is published.
+     *
+     * @param conf configuration to validate
+     * @throws ConfigLoader.ParseException if the configuration is invalid
+     */
+    private static void validate(ConfigLoader.Config conf) throws ConfigLoader.ParseException
+    {
+        try {
+            if (0 == conf.getStringArray("cluster.hosts").length) {
+                throw new ConfigLoader.ParseException("No cluster hosts configured");
+            }
+            for (ConfigLoader.Config alias : conf.getArray("cluster.index_aliases")) {
+                if (null == alias.getString("index") || null == alias.getString("alias")) {
+                    throw new ConfigLoader.ParseException("Index aliases need an index and an alias name");
+                }
+            }
+            SimpleQueryTemplate.validate(conf);
+        } catch (RuntimeException e) {
+            throw new ConfigLoader.ParseException("Invalid configuration: " + e);
+        }
+    }
+
+    /**
+     * @return whether the Elasticsearch connection settings differ between two configurations
+     */
+    private static boolean clusterChanged(ConfigLoader.Config oldConf, ConfigLoader.Config newConf)
+    {
+        if (!Arrays.equals(oldConf.getStringArray("cluster.hosts"), newConf.getStringArray("cluster.hosts"))
+                || !Objects.equals(oldConf.getInteger("cluster.port", ClusterClient.DEFAULT_PORT),
+                        newConf.getInteger("cluster.port", ClusterClient.DEFAULT_PORT))
+                || !Objects.equals(oldConf.getString("cluster.scheme"), newConf.getString("cluster.scheme"))) {
+            return true;
+        }
+
+        // compare individual settings, the string representation of the whole section depends on key order
+        final ConfigLoader.Config oldPool = oldConf.get("cluster.connection_pool");
+        final ConfigLoader.Config newPool = newConf.get("cluster.connection_pool");
+        for (String setting : CONNECTION_POOL_SETTINGS) {
+            if (!Objects.equals(oldPool.getLong(setting), newPool.getLong(setting))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
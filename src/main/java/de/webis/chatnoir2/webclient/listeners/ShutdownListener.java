@@ -25,6 +25,7 @@
 
 package de.webis.chatnoir2.webclient.listeners;
 
+import de.webis.chatnoir2.webclient.hdfs.MapFileReader;
 import de.webis.chatnoir2.webclient.util.Configured;
 
 import javax.servlet.ServletContextEvent;
@@ -46,5 +47,6 @@ public class ShutdownListener implements ServletContextListener
     public void contextDestroyed(ServletContextEvent event)
     {
         Configured.shutdownClient();
+        MapFileReader.shutdown();
     }
 }
@@ -26,18 +26,12 @@
 package de.webis.chatnoir2.webclient.model;
 
 import de.webis.chatnoir2.webclient.util.Configured;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
-import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsResponse;
+import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.rest.RestStatus;
 
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -83,7 +77,7 @@ public abstract class ElasticsearchModel extends ValidatingModel<String, Object>
      */
     public boolean loadById(String documentId)
     {
-        GetResponse response = Configured.getClient().prepareGet(mIndexName, mType, documentId).get();
+        GetResponse response = Configured.getClient().get(new GetRequest(mIndexName, mType, documentId));
         if (!response.isExists()) {
             return false;
         }
@@ -131,9 +125,7 @@ public abstract class ElasticsearchModel extends ValidatingModel<String, Object>
     {
         IndexResponse response = Configured
                 .getClient()
-                .prepareIndex(mIndexName, mType, mDocumentId)
-                .setSource(getAll())
-                .get();
+                .index(new IndexRequest(mIndexName, mType, mDocumentId).source(getAll()));
 
         if (null == mDocumentId) {
             setId(response.getId());
@@ -155,25 +147,8 @@ public abstract class ElasticsearchModel extends ValidatingModel<String, Object>
             return;
         }
 
-        IndicesExistsRequest request = new IndicesExistsRequest(mIndexName);
         try {
-            TransportClient client = Configured.getClient();
-            IndicesExistsResponse response = client.admin().indices().exists(request).get();
-            if (!response.isExists()) {
-                Configured.getSysLogger().info(String.format(
-                        "Index '%s' does not exist, creating it.", mIndexName));
-
-                URL mappingFileURL = getClass().getClassLoader().getResource(mappingFile);
-                assert mappingFileURL != null;
-                Path mappingFilePath = Paths.get(mappingFileURL.toURI());
-                final String mapping = Files.lines(mappingFilePath).reduce("", (a, b) -> a + b + "\n");
-                client
-                        .admin()
-                        .indices()
-                        .prepareCreate(mIndexName)
-                        .setSource(mapping, XContentType.JSON)
-                        .get();
-
+            if (Configured.getClient().ensureIndexCreated(mIndexName, mappingFile)) {
                 onAfterCreate();
             }
         } catch (Exception e) {
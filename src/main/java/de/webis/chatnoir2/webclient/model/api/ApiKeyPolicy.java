@@ -0,0 +1,169 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.model.api;
+
+import org.elasticsearch.common.Nullable;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable effective policy of an API key with all settings resolved along its trust chain.
+ *
+ * Resolving limits, expiry and revocation status from an {@link ApiKeyModel} walks all its
+ * ancestors on every call, so authenticated requests should check against a policy object
+ * created once per key instead.
+ */
+public class ApiKeyPolicy implements Serializable
+{
+    private final String mApiKey;
+    private final Set<String> mAncestors;
+    private final long mDailyLimit;
+    private final long mWeeklyLimit;
+    private final long mMonthlyLimit;
+    private final Set<String> mRoles;
+    private final Set<InetAddress> mRemoteHosts;
+    private final LocalDateTime mExpiryDate;
+    private final boolean mRevoked;
+
+    /**
+     * Resolve the effective policy of an API key.
+     *
+     * @param model API key model
+     */
+    public ApiKeyPolicy(ApiKeyModel model)
+    {
+        mApiKey = model.getId();
+
+        Set<String> ancestors = new LinkedHashSet<>();
+        for (ApiKeyModel parent = model.getParent(); null != parent; parent = parent.getParent()) {
+            if (null == parent.getId() || !ancestors.add(parent.getId())) {
+                break;
+            }
+        }
+        mAncestors = Collections.unmodifiableSet(ancestors);
+
+        ApiKeyModel.ApiLimits limits = model.getApiLimits();
+        mDailyLimit = limits.getDailyLimit();
+        mWeeklyLimit = limits.getWeeklyLimit();
+        mMonthlyLimit = limits.getMonthlyLimit();
+
+        mRoles = Collections.unmodifiableSet(new HashSet<>(model.getRoles()));
+        mRemoteHosts = Collections.unmodifiableSet(model.getRemoteHosts());
+        mExpiryDate = model.getExpiryDate();
+        mRevoked = model.isRevoked();
+    }
+
+    /**
+     * @return API key this policy applies to
+     */
+    public String getApiKey()
+    {
+        return mApiKey;
+    }
+
+    /**
+     * Check whether the given key is part of this key's trust chain.
+     *
+     * @param apiKey API key to check
+     * @return true if <tt>apiKey</tt> is an ancestor of this policy's key
+     */
+    public boolean hasAncestor(String apiKey)
+    {
+        return mAncestors.contains(apiKey);
+    }
+
+    /**
+     * @return daily request limit after resolution of parent limits
+     */
+    public long getDailyLimit()
+    {
+        return mDailyLimit;
+    }
+
+    /**
+     * @return weekly request limit after resolution of parent limits
+     */
+    public long getWeeklyLimit()
+    {
+        return mWeeklyLimit;
+    }
+
+    /**
+     * @return monthly request limit after resolution of parent limits
+     */
+    public long getMonthlyLimit()
+    {
+        return mMonthlyLimit;
+    }
+
+    /**
+     * @return unmodifiable set of user roles
+     */
+    public Set<String> getRoles()
+    {
+        return mRoles;
+    }
+
+    /**
+     * @return unmodifiable set of allowed remote host addresses (empty if all hosts are allowed)
+     */
+    public Set<InetAddress> getRemoteHosts()
+    {
+        return mRemoteHosts;
+    }
+
+    /**
+     * @return earliest expiry date along the trust chain or null if key doesn't expire
+     */
+    @Nullable
+    public LocalDateTime getExpiryDate()
+    {
+        return mExpiryDate;
+    }
+
+    /**
+     * @return whether API key or one of its ancestors has been revoked
+     */
+    public boolean isRevoked()
+    {
+        return mRevoked;
+    }
+
+    /**
+     * @return whether API key or one of its ancestors has expired
+     */
+    public boolean isExpired()
+    {
+        return null != mExpiryDate && mExpiryDate.isBefore(LocalDateTime.now());
+    }
+}
@@ -31,25 +31,37 @@ import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Loader and provider singleton for configuration directives.
+ *
+ * Configuration files are compiled into immutable {@link Config} snapshots when they are loaded.
+ * A snapshot can be replaced atomically with {@link #reloadConfig(String)}, readers holding on to
+ * an old snapshot will continue to see a consistent (but outdated) configuration.
  */
 public class ConfigLoader
 {
-    private static final String DEFAULT_FILE_NAME = "config.yml";
+    /**
+     * Name of the system configuration file.
+     */
+    public static final String DEFAULT_FILE_NAME = "config.yml";
 
     private static final ConfigLoader mInstance = new ConfigLoader();
 
-    private final HashMap<String, Object> mConfigObjects = new HashMap<>();
+    /**
+     * Compiled configuration snapshots by file name.
+     */
+    private final Map<String, Config> mConfigs = new ConcurrentHashMap<>();
 
     /**
      * Return Singleton ConfigLoader instance.
@@ -83,29 +95,112 @@ public class ConfigLoader
 
     /**
      * Get configuration directive as Config object from specified file.
+     * The file is loaded only once, subsequent calls return the same snapshot
+     * until the file is reloaded with {@link #reloadConfig(String)}.
      *
      * @param configFileName name of the config file to retrieve the configuration from
      * @return the Config object
      * @throws IOException
      * @throws ParseException
      */
-    public synchronized Config getConfig(final String configFileName) throws IOException, ParseException
+    public Config getConfig(final String configFileName) throws IOException, ParseException
     {
-        if (null == mConfigObjects.get(configFileName)) {
-            loadConfigFile(configFileName);
+        final Config config = mConfigs.get(configFileName);
+        if (null != config) {
+            return config;
+        }
+
+        synchronized (this) {
+            if (!mConfigs.containsKey(configFileName)) {
+                mConfigs.put(configFileName, loadConfigFile(configFileName));
+            }
+            return mConfigs.get(configFileName);
         }
+    }
 
-        return new Config(mConfigObjects.get(configFileName));
+    /**
+     * Reload the default configuration file and replace the current snapshot.
+     *
+     * @return the new Config object
+     * @throws IOException
+     * @throws ParseException
+     */
+    public Config reloadConfig() throws IOException, ParseException
+    {
+        return reloadConfig(DEFAULT_FILE_NAME);
+    }
+
+    /**
+     * Reload a configuration file and replace the current snapshot.
+     * If the file cannot be loaded, the current snapshot remains in place.
+     *
+     * @param configFileName name of the config file to reload
+     * @return the new Config object
+     * @throws IOException
+     * @throws ParseException
+     */
+    public Config reloadConfig(final String configFileName) throws IOException, ParseException
+    {
+        return reloadConfig(configFileName, null);
+    }
+
+    /**
+     * Reload a configuration file and replace the current snapshot if it passes validation.
+     * If the file cannot be loaded or is invalid, the current snapshot remains in place.
+     *
+     * @param configFileName name of the config file to reload
+     * @param validator validator for the new configuration (may be null)
+     * @return the new Config object
+     * @throws IOException
+     * @throws ParseException if the file cannot be parsed or fails validation
+     */
+    public synchronized Config reloadConfig(final String configFileName, final Validator validator)
+            throws IOException, ParseException
+    {
+        final Config config = loadConfigFile(configFileName);
+        if (null != validator) {
+            validator.validate(config);
+        }
+        mConfigs.put(configFileName, config);
+        return config;
     }
 
     /**
-     * Load configuration from JSON file.
+     * Load and compile configuration from YAML or JSON file.
      *
      * @param configFileName the configuration file, null for default config file
+     * @return compiled Config object
      * @throws IOException
      * @throws ParseException
      */
-    private synchronized void loadConfigFile(String configFileName) throws IOException, ParseException
+    private Config loadConfigFile(String configFileName) throws IOException, ParseException
+    {
+        final Path configFile = resolveConfigFile(configFileName);
+        if (configFileName == null) {
+            configFileName = DEFAULT_FILE_NAME;
+        }
+
+        try {
+            byte[] fileContents = Files.readAllBytes(configFile);
+            Tuple<XContentType, Map<String, Object>> xContent = XContentHelper
+                    .convertToMap(new BytesArray(fileContents), false,
+                            configFileName.endsWith(".json") ? XContentType.JSON : XContentType.YAML);
+
+            return new Config(xContent.v2());
+        } catch (Exception e) {
+            throw new ParseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Resolve the path of a configuration file. Files in <tt>/etc/chatnoir2/</tt> take precedence
+     * over files in the working directory, which take precedence over class path resources.
+     *
+     * @param configFileName the configuration file, null for default config file
+     * @return path to the configuration file
+     * @throws IOException if the file does not exist
+     */
+    public Path resolveConfigFile(String configFileName) throws IOException
     {
         if (configFileName == null) {
             configFileName = DEFAULT_FILE_NAME;
@@ -127,45 +222,89 @@ public class ConfigLoader
             throw new IOException(String.format("Config file '%s' not found", configFileName));
         }
 
-        try {
-            byte[] fileContents = Files.readAllBytes(configFile);
-            Tuple<XContentType, Map<String, Object>> xContent = XContentHelper
-                    .convertToMap(new BytesArray(fileContents), false,
-                            configFileName.endsWith(".json") ? XContentType.JSON : XContentType.YAML);
-
-            mConfigObjects.put(configFileName, xContent.v2());
-        } catch (Exception e) {
-            throw new ParseException(e.getMessage());
-        }
+        return configFile;
     }
 
     /**
-     * Configuration data transfer object.
+     * Immutable configuration data transfer object.
+     *
+     * Config objects are compiled once when the configuration is loaded: every section holds a flattened
+     * index of all its (nested) directives by dotted path and list directives hold their elements
+     * as pre-built Config objects, so lookups do not need to walk the configuration tree.
      */
     public static class Config
     {
         /**
-         * Raw JSON config object.
+         * Shared placeholder for directives which do not exist.
+         */
+        private static final Config MISSING = new Config();
+
+        private static final Config[] EMPTY_ARRAY = new Config[0];
+
+        /**
+         * Raw config value.
          */
         private final Object mConfigObject;
 
+        /**
+         * All nested directives of this section by dotted path.
+         */
+        private final Map<String, Config> mPaths;
+
+        /**
+         * Elements of this directive if it is a list, otherwise null.
+         */
+        private final Config[] mArray;
+
+        /**
+         * Lazily converted typed arrays of this list directive by element type.
+         */
+        private final Map<Class<?>, Object[]> mTypedArrays = new ConcurrentHashMap<>();
+
         /**
          * Construct empty (placeholder) Config object.
          * May be used when loading actual config fails. Note: all getters without default values will return null!
          */
         public Config() {
-            this.mConfigObject = null;
+            mConfigObject = null;
+            mPaths = Collections.emptyMap();
+            mArray = null;
         }
 
         /**
          * Constructor.
-         * Initialize Config object with JSON data.
+         * Initialize Config object with JSON data and compile all nested directives.
          *
          * @param configObject the raw JSON config object
          */
         protected Config(Object configObject)
         {
-            this.mConfigObject = configObject;
+            mConfigObject = configObject;
+
+            if (configObject instanceof Map) {
+                final Map<String, Config> paths = new HashMap<>();
+                for (Map.Entry<?, ?> e : ((Map<?, ?>) configObject).entrySet()) {
+                    final String key = String.valueOf(e.getKey());
+                    final Config child = new Config(e.getValue());
+                    paths.put(key, child);
+                    for (Map.Entry<String, Config> nested : child.mPaths.entrySet()) {
+                        paths.putIfAbsent(key + "." + nested.getKey(), nested.getValue());
+                    }
+                }
+                mPaths = Collections.unmodifiableMap(paths);
+            } else {
+                mPaths = Collections.emptyMap();
+            }
+
+            if (configObject instanceof List) {
+                final List<?> list = (List<?>) configObject;
+                mArray = new Config[list.size()];
+                for (int i = 0; i < mArray.length; ++i) {
+                    mArray[i] = new Config(list.get(i));
+                }
+            } else {
+                mArray = null;
+            }
         }
 
         /**
@@ -177,9 +316,7 @@ public class ConfigLoader
          */
         public boolean contains(String name)
         {
-            assert mConfigObject != null;
-            return ((Map) mConfigObject).get(name) != null || get(name).mConfigObject != null;
-
+            return null != get(name).mConfigObject;
         }
 
         /**
@@ -188,25 +325,12 @@ public class ConfigLoader
          * reference nested configuration options.
          *
          * @param name name of the configuration directive or a directive path divided by dots
-         * @return the Config object
+         * @return the Config object (an empty Config object if no such directive exists)
          */
         public Config get(String name)
         {
-            if (null == mConfigObject || !(mConfigObject instanceof Map)) {
-                return this;
-            }
-
-            Object obj = mConfigObject;
-            try {
-                String[] splits = name.split("\\.");
-                for (String s : splits) {
-                    obj = ((Map) obj).get(s);
-                }
-            } catch (Exception e) {
-                return this;
-            }
-
-            return new Config(obj);
+            final Config config = mPaths.get(name);
+            return null != config ? config : MISSING;
         }
 
         /**
@@ -228,11 +352,8 @@ public class ConfigLoader
          */
         public String getString(final String name, final String defaultValue)
         {
-            try {
-                return get(name).mConfigObject.toString();
-            } catch (NullPointerException e) {
-                return defaultValue;
-            }
+            final Object obj = get(name).mConfigObject;
+            return null != obj ? obj.toString() : defaultValue;
         }
 
         /**
@@ -254,11 +375,8 @@ public class ConfigLoader
          */
         public Long getLong(final String name, final Long defaultValue)
         {
-            try{
-                return ((Number) (get(name).mConfigObject)).longValue();
-            } catch (NullPointerException e) {
-                return defaultValue;
-            }
+            final Object obj = get(name).mConfigObject;
+            return null != obj ? (Long) ((Number) obj).longValue() : defaultValue;
         }
 
 
@@ -303,15 +421,8 @@ public class ConfigLoader
          */
         public Double getDouble(final String name, final Double defaultValue)
         {
-            if (!contains(name)) {
-                return defaultValue;
-            }
-
-            try {
-                return ((Number) get(name).mConfigObject).doubleValue();
-            } catch (NullPointerException e) {
-                return defaultValue;
-            }
+            final Object obj = get(name).mConfigObject;
+            return null != obj ? (Double) ((Number) obj).doubleValue() : defaultValue;
         }
 
         /**
@@ -355,12 +466,11 @@ public class ConfigLoader
          */
         public Boolean getBoolean(final String name, final Boolean defaultValue)
         {
-            if (!contains(name)) {
+            final Object obj = get(name).mConfigObject;
+            if (null == obj) {
                 return defaultValue;
             }
-
-            Object obj = get(name).mConfigObject;
-            return null != obj && obj instanceof Boolean && (Boolean) obj;
+            return obj instanceof Boolean && (Boolean) obj;
         }
 
         /**
@@ -371,20 +481,16 @@ public class ConfigLoader
          */
         public Config[] getArray(final String name)
         {
-            if (!contains(name)) {
-                return new Config[0];
+            final Config config = get(name);
+            if (null == config.mConfigObject) {
+                return EMPTY_ARRAY;
             }
-
-            assert mConfigObject != null;
-            List list = (List) get(name).mConfigObject;
-            final int len = list.size();
-
-            final Config[] configArr = new Config[len];
-            for (int i = 0; i < len; ++i) {
-                configArr[i] = new Config(list.get(i));
+            if (null == config.mArray) {
+                throw new ClassCastException(String.format("Config directive '%s' is not a list", name));
             }
 
-            return configArr;
+            // the elements themselves are immutable, so a shallow copy is enough
+            return config.mArray.clone();
         }
 
         /**
@@ -395,8 +501,7 @@ public class ConfigLoader
          */
         public String[] getStringArray(final String name)
         {
-            final ArrayList<String> a = getTypedArrayList(name, String.class);
-            return a.toArray(new String[a.size()]);
+            return getTypedArray(name, String.class);
         }
 
         /**
@@ -407,8 +512,7 @@ public class ConfigLoader
          */
         public Long[] getLongArray(final String name)
         {
-            final ArrayList<Long> a = getTypedArrayList(name, Long.class);
-            return a.toArray(new Long[a.size()]);
+            return getTypedArray(name, Long.class);
         }
 
         /**
@@ -419,36 +523,49 @@ public class ConfigLoader
          */
         public Double[] getDoubleArray(final String name)
         {
-            final ArrayList<Double> a = getTypedArrayList(name, Double.class);
-            return a.toArray(new Double[a.size()]);
+            return getTypedArray(name, Double.class);
         }
 
         /**
          * Helper method for generating typed arrays from config.
+         * Converted arrays are cached, so only a shallow copy is created on subsequent calls.
          *
          * @param name configuration directive name
          * @param type class object of type <T>
          * @param <T> array type
-         * @return ArrayList of type <T> (empty if no such entry exists)
+         * @return array of type <T> (empty if no such entry exists)
          */
         @SuppressWarnings("unchecked")
-        private <T> ArrayList<T> getTypedArrayList(final String name, final Class<T> type)
+        private <T> T[] getTypedArray(final String name, final Class<T> type)
         {
-            if (!contains(name)) {
-                return new ArrayList<>(0);
+            final Config config = get(name);
+            if (null == config.mConfigObject) {
+                return (T[]) Array.newInstance(type, 0);
             }
 
-            assert mConfigObject != null;
-            final ArrayList<T> typedArrayList = new ArrayList<>();
-            final List cfg = (List) get(name).mConfigObject;
-
-            for (final Object o : cfg) {
-                typedArrayList.add((T) o);
-            }
-            return typedArrayList;
+            final Object[] typedArray = config.mTypedArrays.computeIfAbsent(type, t -> {
+                final List<?> list = (List<?>) config.mConfigObject;
+                return list.toArray((T[]) Array.newInstance(type, list.size()));
+            });
+            return (T[]) typedArray.clone();
         }
     }
 
+    /**
+     * Validator for configurations loaded with {@link #reloadConfig(String, Validator)}.
+     */
+    @FunctionalInterface
+    public interface Validator
+    {
+        /**
+         * Validate a configuration before it is published.
+         *
+         * @param config configuration to validate
+         * @throws ParseException if the configuration is invalid
+         */
+        void validate(Config config) throws ParseException;
+    }
+
     /**
      * Parser Exception, abstraction wrapper for org.json.simple.parser.ParseException.
      */
@@ -30,9 +30,15 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.*;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -40,21 +46,37 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheException;
 import com.github.mustachejava.MustacheFactory;
 import de.webis.chatnoir2.webclient.ChatNoirServlet;
+import de.webis.chatnoir2.webclient.util.Configured;
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 
 public class Renderer
 {
     private static final String MIME_TYPE_TEXT_HTML_CHARSET_UTF8 = "text/html; charset=UTF-8";
+    private static final String TEMPLATE_DIR = "/templates/";
+    private static final String MAINTENANCE_FILE = "/etc/chatnoir2/maintenance";
+    private static final long GLOBALS_REFRESH_INTERVAL = 10000;
     private static long mCssLastModification = -1;
 
+    /**
+     * Compiled templates by template path.
+     */
+    private static final Map<String, Mustache> sTemplates = new ConcurrentHashMap<>();
+
+    private static volatile MustacheFactory sMustacheFactory = null;
+    private static File sResourceBase = null;
+    private static ScheduledExecutorService sRefreshExecutor = null;
+    private static Thread sTemplateWatcher = null;
+
+    private static volatile boolean sMaintenance = false;
+    private static volatile String sCopyrightYear = "2017";
+
     public static void render(final ServletContext context, HttpServletRequest request,
                               HttpServletResponse response, String template, Object... scopes) throws IOException
     {
-        File f             = new File(context.getRealPath(template));
-        File resourceBase  = f.getParentFile().getParentFile();
-        MustacheFactory mf = new DefaultMustacheFactory(resourceBase);
-        Mustache m         = mf.compile(template);
+        Mustache m = getTemplate(context, template);
         response.setContentType(MIME_TYPE_TEXT_HTML_CHARSET_UTF8);
 
         // add global default template variables
@@ -65,20 +87,110 @@ public class Renderer
         System.arraycopy(scopes, 0, newScopes, 1, scopes.length);
         newScopes[0] = vars;
 
-        File maintenanceFile = new File("/etc/chatnoir2/maintenance");
-        if (maintenanceFile.exists()) {
+        if (sMaintenance) {
             vars.put("maintenance", "true");
         }
 
         vars.put("cssLastModified", String.valueOf(getCSSLastModification(context)));
+        vars.put("copyrightYear", sCopyrightYear);
 
-        String year = String.valueOf(Calendar.getInstance().get(Calendar.YEAR));
-        if (!year.equals("2017")) {
-            year = "2017-" + year;
+        final long startTime = System.nanoTime();
+        m.execute(new PrintWriter(response.getOutputStream()), newScopes).flush();
+        RequestTrace.get(request).recordSince("render", startTime);
+    }
+
+    /**
+     * Get compiled template. Templates are compiled only once and then served from the template registry.
+     *
+     * @param context servlet context
+     * @param template template path relative to the web application root
+     * @return compiled template
+     */
+    public static Mustache getTemplate(final ServletContext context, String template)
+    {
+        if (null == sMustacheFactory) {
+            init(context);
+        }
+        final MustacheFactory mf = sMustacheFactory;
+        return sTemplates.computeIfAbsent(template, mf::compile);
+    }
+
+    /**
+     * Initialize renderer, pre-compile all templates and start background tasks for refreshing
+     * global template variables. If <tt>general.template_hot_reload</tt> is set, template
+     * files are watched for changes and recompiled on the next request after they were modified.
+     * Calling this method more than once has no effect.
+     *
+     * @param context servlet context
+     */
+    public static synchronized void init(final ServletContext context)
+    {
+        if (null != sMustacheFactory) {
+            return;
         }
-        vars.put("copyrightYear", year);
 
-        m.execute(new PrintWriter(response.getOutputStream()), newScopes).flush();
+        sResourceBase = new File(context.getRealPath("/"));
+        sMustacheFactory = new DefaultMustacheFactory(sResourceBase);
+
+        refreshGlobals();
+        sRefreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Renderer-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        sRefreshExecutor.scheduleWithFixedDelay(Renderer::refreshGlobals,
+                GLOBALS_REFRESH_INTERVAL, GLOBALS_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+
+        if (Configured.getConf().getBoolean("general.template_hot_reload", false)) {
+            startTemplateWatcher(new File(sResourceBase, TEMPLATE_DIR).toPath());
+        }
+
+        // warm up template registry
+        Set<String> templates = context.getResourcePaths(TEMPLATE_DIR);
+        if (null == templates) {
+            return;
+        }
+        for (String template : templates) {
+            if (!template.endsWith(".mustache")) {
+                continue;
+            }
+            try {
+                getTemplate(context, template);
+            } catch (MustacheException e) {
+                Configured.getSysLogger().error(String.format("Failed to compile template %s", template), e);
+            }
+        }
+    }
+
+    /**
+     * Stop background tasks and clear template registry.
+     */
+    public static synchronized void shutdown()
+    {
+        if (null != sRefreshExecutor) {
+            sRefreshExecutor.shutdownNow();
+            sRefreshExecutor = null;
+        }
+        if (null != sTemplateWatcher) {
+            sTemplateWatcher.interrupt();
+            sTemplateWatcher = null;
+        }
+        sMustacheFactory = null;
+        sTemplates.clear();
+    }
+
+    /**
+     * Discard all compiled templates, so they will be recompiled on their next use.
+     */
+    public static synchronized void invalidateTemplates()
+    {
+        if (null == sMustacheFactory) {
+            return;
+        }
+
+        // the factory caches compiled partials itself, so it needs to be replaced as well
+        sMustacheFactory = new DefaultMustacheFactory(sResourceBase);
+        sTemplates.clear();
     }
 
     public static synchronized long getCSSLastModification(ServletContext context) throws MalformedURLException {
@@ -88,4 +200,56 @@ public class Renderer
         }
         return mCssLastModification;
     }
+
+    /**
+     * Update global template variables which do not depend on the current request.
+     */
+    private static void refreshGlobals()
+    {
+        sMaintenance = new File(MAINTENANCE_FILE).exists();
+
+        String year = String.valueOf(Calendar.getInstance().get(Calendar.YEAR));
+        if (!year.equals("2017")) {
+            year = "2017-" + year;
+        }
+        sCopyrightYear = year;
+    }
+
+    /**
+     * Start background thread which invalidates compiled templates when template files change.
+     *
+     * @param templateDir template directory to watch
+     */
+    private static void startTemplateWatcher(final Path templateDir)
+    {
+        final WatchService watchService;
+        try {
+            watchService = templateDir.getFileSystem().newWatchService();
+            templateDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            Configured.getSysLogger().error(String.format("Cannot watch template directory %s", templateDir), e);
+            return;
+        }
+
+        sTemplateWatcher = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    WatchKey key = watchService.take();
+                    key.pollEvents();
+                    invalidateTemplates();
+                    if (!key.reset()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            } finally {
+                try {
+                    watchService.close();
+                } catch (IOException ignored) {}
+            }
+        }, "Renderer-template-watcher");
+        sTemplateWatcher.setDaemon(true);
+        sTemplateWatcher.start();
+    }
 }
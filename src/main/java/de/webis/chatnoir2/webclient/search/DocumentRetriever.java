@@ -30,7 +30,11 @@ import de.webis.chatnoir2.webclient.CacheServlet;
 import de.webis.chatnoir2.webclient.hdfs.MapFileReader;
 import de.webis.chatnoir2.webclient.util.TextCleanser;
 import org.apache.http.client.utils.URIBuilder;
+import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
@@ -66,10 +70,6 @@ public class DocumentRetriever extends IndexRetrievalOperator
     public DocumentRetriever(final boolean rewriteURIs, boolean cleanEncodingErrors)
     {
         super(null);
-
-        if (!MapFileReader.isInitialized()) {
-            MapFileReader.init();
-        }
         mRewriteURIs = rewriteURIs;
         mCleanEncodingErrors = cleanEncodingErrors;
     }
@@ -107,7 +107,7 @@ public class DocumentRetriever extends IndexRetrievalOperator
             return null;
         }
 
-        final GetResponse response = getClient().prepareGet(indexName, "warcrecord", docID).get();
+        final GetResponse response = getClient().get(new GetRequest(indexName, "warcrecord", docID));
         if (!response.isExists()) {
             return null;
         }
@@ -148,19 +148,85 @@ public class DocumentRetriever extends IndexRetrievalOperator
             return null;
         }
 
-        final GetResponse response = getClient().prepareGet(indexName, "warcrecord", docID).get();
+        final String recordIDKey = getRecordIDKey(indexName);
+        final GetResponse response = getClient().get(new GetRequest(indexName, "warcrecord", docID)
+                .fetchSourceContext(new FetchSourceContext(true, new String[]{recordIDKey}, null)));
         if (!response.isExists()) {
             return null;
         }
 
-        String recordIDKey = "warc_record_id";
-        if (indexName.contains("clueweb")) {
-            recordIDKey = "warc_trec_id";
-        }
         String recordID = (String) response.getSource().get(recordIDKey);
         return getByWarcID(indexName, recordID);
     }
 
+    /**
+     * Retrieve multiple documents by their UUIDs.
+     * MapFile lookups are grouped by partition and run in a single pass per partition.
+     *
+     * @param indexName name of the index from which to retrieve the documents
+     * @param docUUIDs document UUIDs inside the MapFile
+     * @return map of retrieved documents by UUID (documents which do not exist are omitted)
+     */
+    public Map<UUID, Document> getByUUIDs(final String indexName, final Collection<UUID> docUUIDs)
+    {
+        final Map<UUID, Document> documents = new LinkedHashMap<>();
+        if (!isIndexAllowed(indexName) || docUUIDs.isEmpty()) {
+            return documents;
+        }
+
+        final Map<UUID, JSONObject> docs = MapFileReader.getDocuments(docUUIDs, indexName);
+        for (UUID uuid : docUUIDs) {
+            final JSONObject doc = docs.get(uuid);
+            if (null != doc) {
+                documents.put(uuid, new Document(uuid, indexName, doc));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Retrieve multiple documents by their index-internal Elasticsearch document IDs.
+     * WARC record IDs are resolved with a single multi-get request.
+     *
+     * @param indexName name of the index from which to retrieve the documents
+     * @param docIDs Elasticsearch document IDs
+     * @return map of retrieved documents by document ID (documents which do not exist are omitted)
+     */
+    public Map<String, Document> getByIndexDocIDs(final String indexName, final Collection<String> docIDs)
+    {
+        if (!isIndexAllowed(indexName) || docIDs.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+
+        final String recordIDKey = getRecordIDKey(indexName);
+        final FetchSourceContext fetchSource = new FetchSourceContext(true, new String[]{recordIDKey}, null);
+        final MultiGetRequest request = new MultiGetRequest();
+        for (String docID : docIDs) {
+            request.add(new MultiGetRequest.Item(indexName, "warcrecord", docID).fetchSourceContext(fetchSource));
+        }
+
+        final Map<String, String> warcIDs = new LinkedHashMap<>();
+        for (MultiGetItemResponse item : getClient().multiGet(request)) {
+            if (item.isFailed() || !item.getResponse().isExists()) {
+                continue;
+            }
+            final Object recordID = item.getResponse().getSource().get(recordIDKey);
+            if (null != recordID) {
+                warcIDs.put(item.getId(), recordID.toString());
+            }
+        }
+
+        final Map<String, Document> byWarcID = getByWarcIDs(indexName, warcIDs.values());
+        final Map<String, Document> documents = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : warcIDs.entrySet()) {
+            final Document doc = byWarcID.get(e.getValue());
+            if (null != doc) {
+                documents.put(e.getKey(), doc);
+            }
+        }
+        return documents;
+    }
+
     /**
      * Retrieve document by its WARC record ID.
      *
@@ -183,6 +249,40 @@ public class DocumentRetriever extends IndexRetrievalOperator
         }
     }
 
+    /**
+     * Retrieve multiple documents by their WARC record IDs.
+     *
+     * @param indexName name of the index from which to retrieve the documents
+     * @param warcIDs document WARC IDs
+     * @return map of retrieved documents by WARC ID (documents which do not exist are omitted)
+     */
+    public Map<String, Document> getByWarcIDs(final String indexName, final Collection<String> warcIDs)
+    {
+        final Map<String, Document> documents = new LinkedHashMap<>();
+        if (!isIndexAllowed(indexName) || warcIDs.isEmpty()) {
+            return documents;
+        }
+
+        final Map<String, UUID> uuids = new LinkedHashMap<>();
+        try {
+            String prefix = getConf().get("hdfs.mapfiles").get(indexName).getString("prefix");
+            for (String warcID : warcIDs) {
+                uuids.put(warcID, WebisUUID.generateUUID(prefix, warcID));
+            }
+        } catch (Exception e) {
+            return documents;
+        }
+
+        final Map<UUID, Document> byUUID = getByUUIDs(indexName, uuids.values());
+        for (Map.Entry<String, UUID> e : uuids.entrySet()) {
+            final Document doc = byUUID.get(e.getValue());
+            if (null != doc) {
+                documents.put(e.getKey(), doc);
+            }
+        }
+        return documents;
+    }
+
     /**
      * Retrieve document by its URI.
      *
@@ -203,6 +303,20 @@ public class DocumentRetriever extends IndexRetrievalOperator
         return getByUUID(indexName, docUUID);
     }
 
+    /**
+     * Get the name of the index field holding the WARC record ID.
+     *
+     * @param indexName index name
+     * @return record ID field name
+     */
+    private String getRecordIDKey(final String indexName)
+    {
+        if (indexName.contains("clueweb")) {
+            return "warc_trec_id";
+        }
+        return "warc_record_id";
+    }
+
     public class Document
     {
         private UUID mDocUUID;
@@ -0,0 +1,191 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.search;
+
+import de.webis.chatnoir2.webclient.resources.ConfigLoader;
+import de.webis.chatnoir2.webclient.util.Configured;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Immutable registry of allowed indices and index aliases with constant-time lookups
+ * between index names, alias names and display names.
+ *
+ * The registry is built once from <tt>cluster.indices</tt>, <tt>cluster.default_indices</tt> and
+ * <tt>cluster.index_aliases</tt> of the current configuration snapshot and rebuilt when the
+ * configuration is reloaded. If an index or alias is listed more than once, the first entry wins.
+ */
+public class IndexAliasRegistry
+{
+    private static volatile IndexAliasRegistry sInstance = null;
+
+    /**
+     * Configuration this registry was built from.
+     */
+    private final ConfigLoader.Config mConfig;
+
+    private final String[] mAllowedIndices;
+    private final String[] mDefaultIndices;
+
+    /**
+     * Allowed index names and aliases of allowed indices.
+     */
+    private final Set<String> mAllowedNames = new HashSet<>();
+
+    private final Map<String, Alias> mByIndex = new HashMap<>();
+    private final Map<String, Alias> mByAlias = new HashMap<>();
+
+    private IndexAliasRegistry(ConfigLoader.Config config)
+    {
+        mConfig = config;
+
+        mAllowedIndices = config.getStringArray("cluster.indices");
+        final String[] defaultIndices = config.getStringArray("cluster.default_indices");
+        mDefaultIndices = 0 == defaultIndices.length ? mAllowedIndices : defaultIndices;
+        mAllowedNames.addAll(Arrays.asList(mAllowedIndices));
+
+        for (ConfigLoader.Config c : config.getArray("cluster.index_aliases")) {
+            final Alias alias = new Alias(c.getString("index", ""), c.getString("alias", ""),
+                    c.getString("display_name"));
+            mByIndex.putIfAbsent(alias.mIndex, alias);
+            mByAlias.putIfAbsent(alias.mAlias, alias);
+
+            // an index is allowed if its alias is allowed and vice versa
+            final List<String> allowed = Arrays.asList(mAllowedIndices);
+            if (allowed.contains(alias.mAlias)) {
+                mAllowedNames.add(alias.mIndex);
+            }
+            if (allowed.contains(alias.mIndex)) {
+                mAllowedNames.add(alias.mAlias);
+            }
+        }
+    }
+
+    /**
+     * Get the registry for the current system configuration.
+     *
+     * @return index alias registry
+     */
+    public static IndexAliasRegistry getInstance()
+    {
+        final ConfigLoader.Config conf = Configured.getConf();
+        IndexAliasRegistry registry = sInstance;
+        if (null == registry || registry.mConfig != conf) {
+            registry = new IndexAliasRegistry(conf);
+            sInstance = registry;
+        }
+        return registry;
+    }
+
+    /**
+     * @return allowed indices (and aliases) as configured
+     */
+    public String[] getAllowedIndices()
+    {
+        return mAllowedIndices.clone();
+    }
+
+    /**
+     * Get the indices to search by default. The returned array is shared and must not be modified.
+     *
+     * @return default indices
+     */
+    String[] getDefaultIndices()
+    {
+        return mDefaultIndices;
+    }
+
+    /**
+     * Check whether a given index is an allowed index or an alias of an allowed index.
+     *
+     * @param name index or alias name
+     * @return whether the index is allowed
+     */
+    public boolean isAllowed(String name)
+    {
+        return mAllowedNames.contains(name);
+    }
+
+    /**
+     * Get the alias of an index.
+     *
+     * @param index index name
+     * @return alias name or null if the index has no alias
+     */
+    @Nullable
+    public String getAlias(String index)
+    {
+        final Alias alias = mByIndex.get(index);
+        return null != alias ? alias.mAlias : null;
+    }
+
+    /**
+     * Get the configured display name of an index or alias.
+     *
+     * @param name index or alias name
+     * @return display name or null if none is configured
+     */
+    @Nullable
+    public String getDisplayName(String name)
+    {
+        Alias alias = mByAlias.get(name);
+        if (null == alias) {
+            alias = mByIndex.get(name);
+        }
+        return null != alias ? alias.mDisplayName : null;
+    }
+
+    /**
+     * Get the display name of an index or alias, falling back to the name itself.
+     *
+     * @param name index or alias name
+     * @return display name
+     */
+    public String getDisplayNameOrName(String name)
+    {
+        final String displayName = getDisplayName(name);
+        return null != displayName ? displayName : name;
+    }
+
+    /**
+     * Index alias definition.
+     */
+    private static class Alias
+    {
+        private final String mIndex;
+        private final String mAlias;
+        private final String mDisplayName;
+
+        private Alias(String index, String alias, @Nullable String displayName)
+        {
+            mIndex = index;
+            mAlias = alias;
+            mDisplayName = displayName;
+        }
+    }
+}
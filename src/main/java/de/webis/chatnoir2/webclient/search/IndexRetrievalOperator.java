@@ -25,11 +25,10 @@
 
 package de.webis.chatnoir2.webclient.search;
 
-import de.webis.chatnoir2.webclient.resources.ConfigLoader;
 import de.webis.chatnoir2.webclient.util.Configured;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
 
 /**
  * Abstract base class for retrieval operations on Elasticsearch indices.
@@ -37,19 +36,14 @@ import java.util.Arrays;
 public abstract class IndexRetrievalOperator extends Configured
 {
     /**
-     * List of allowed indices.
+     * Allowed indices and aliases, shared by all operators using the same configuration.
      */
-    private ArrayList<String> mAllowedIndices;
+    private final IndexAliasRegistry mAliases;
 
     /**
-     * List of default indices.
+     * Effective indices to search (never modified, only replaced).
      */
-    private ArrayList<String> mDefaultIndices;
-
-    /**
-     * Effective list of indices to search.
-     */
-    private ArrayList<String> mActiveIndices = null;
+    private String[] mActiveIndices;
 
     /**
      * @param indices Array of index names to search (null means use default from config).
@@ -57,11 +51,7 @@ public abstract class IndexRetrievalOperator extends Configured
      */
     public IndexRetrievalOperator(String[] indices)
     {
-        mAllowedIndices = new ArrayList<>(Arrays.asList(getConf().getStringArray("cluster.indices")));
-        mDefaultIndices = new ArrayList<>(Arrays.asList(getConf().getStringArray("cluster.default_indices")));
-        if (mDefaultIndices.isEmpty()) {
-            mDefaultIndices.addAll(mAllowedIndices);
-        }
+        mAliases = IndexAliasRegistry.getInstance();
         setActiveIndices(indices);
     }
 
@@ -81,25 +71,22 @@ public abstract class IndexRetrievalOperator extends Configured
      * @param candidateIndices candidate indices to choose from
      */
     public void setActiveIndices(String[] candidateIndices) {
-        if (null == mActiveIndices) {
-            mActiveIndices = new ArrayList<>();
-        }
-
-        mActiveIndices.clear();
-
         if (null == candidateIndices) {
-            mActiveIndices.addAll(mDefaultIndices);
+            mActiveIndices = mAliases.getDefaultIndices();
             return;
         }
 
+        final List<String> activeIndices = new ArrayList<>(candidateIndices.length);
         for (String index : candidateIndices) {
             if (isIndexAllowed(index)) {
-                mActiveIndices.add(index.trim());
+                activeIndices.add(index.trim());
             }
         }
 
-        if (mActiveIndices.isEmpty()) {
-            mActiveIndices.addAll(mDefaultIndices);
+        if (activeIndices.isEmpty()) {
+            mActiveIndices = mAliases.getDefaultIndices();
+        } else {
+            mActiveIndices = activeIndices.toArray(new String[0]);
         }
     }
 
@@ -114,23 +101,7 @@ public abstract class IndexRetrievalOperator extends Configured
             return false;
         }
 
-        indexName = indexName.trim();
-
-        if (mAllowedIndices.contains(indexName)) {
-            return true;
-        }
-
-        ConfigLoader.Config[] aliases = getConf().get("cluster").getArray("index_aliases");
-        for (ConfigLoader.Config c: aliases) {
-            String index = c.getString("index");
-            String alias = c.getString("alias");
-            if ((index.equals(indexName) && mAllowedIndices.contains(alias)) ||
-                    (alias.equals(indexName) && mAllowedIndices.contains(index))) {
-                return true;
-            }
-        }
-
-        return false;
+        return mAliases.isAllowed(indexName.trim());
     }
 
     /**
@@ -140,7 +111,7 @@ public abstract class IndexRetrievalOperator extends Configured
      */
     public String[] getEffectiveIndices()
     {
-        return mActiveIndices.toArray(new String[mActiveIndices.size()]);
+        return mActiveIndices.clone();
     }
 
     /**
@@ -150,6 +121,6 @@ public abstract class IndexRetrievalOperator extends Configured
      */
     public String[] getAllowedIndices()
     {
-        return mAllowedIndices.toArray(new String[mAllowedIndices.size()]);
+        return mAliases.getAllowedIndices();
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.search;
+
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a batch of {@link SimpleSearch}es with a single Elasticsearch multi search request.
+ */
+public class MultiSearch extends Configured
+{
+    /**
+     * Searches in this batch.
+     */
+    private final List<SimpleSearch> mSearches = new ArrayList<>();
+
+    /**
+     * Prepared search requests (null for searches answered from the result cache).
+     */
+    private final List<SearchRequest> mRequests = new ArrayList<>();
+
+    /**
+     * Failures of individual searches after the batch has been run.
+     */
+    private final List<Exception> mFailures = new ArrayList<>();
+
+    /**
+     * Add a search to this batch.
+     *
+     * @param search search provider
+     * @param query search query
+     * @param from first result to return
+     * @param size number of results to return
+     */
+    public void add(SimpleSearch search, String query, int from, int size)
+    {
+        mSearches.add(search);
+        mRequests.add(search.prepareMultiSearchRequest(query, from, size));
+        mFailures.add(null);
+    }
+
+    /**
+     * @return number of searches in this batch
+     */
+    public int size()
+    {
+        return mSearches.size();
+    }
+
+    /**
+     * Run all searches of this batch which cannot be answered from the result cache without
+     * blocking the calling thread. The listener is notified on an Elasticsearch network thread
+     * once results can be retrieved from the individual search providers, unless
+     * {@link #getFailure(int)} returns a failure for them. If the whole batch fails, the failure
+     * is reported for each search individually, so the listener is never notified of a failure.
+     *
+     * @param listener listener to notify when the batch has completed
+     */
+    public void doSearchAsync(ActionListener<Void> listener)
+    {
+        final MultiSearchRequest multiRequest = new MultiSearchRequest();
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < mRequests.size(); ++i) {
+            if (null != mRequests.get(i)) {
+                multiRequest.add(mRequests.get(i));
+                positions.add(i);
+            }
+        }
+        if (positions.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+
+        getClient().msearch(multiRequest, ActionListener.wrap(
+                response -> {
+                    final MultiSearchResponse.Item[] items = response.getResponses();
+                    for (int i = 0; i < items.length; ++i) {
+                        final int pos = positions.get(i);
+                        if (items[i].isFailure()) {
+                            mFailures.set(pos, items[i].getFailure());
+                        } else {
+                            mSearches.get(pos).setMultiSearchResponse(items[i].getResponse());
+                        }
+                    }
+                    listener.onResponse(null);
+                },
+                e -> {
+                    for (int pos : positions) {
+                        mFailures.set(pos, e);
+                    }
+                    listener.onResponse(null);
+                }));
+    }
+
+    /**
+     * Get the failure of an individual search in this batch.
+     *
+     * @param i index of the search in the order it was added
+     * @return exception or null if the search succeeded
+     */
+    public Exception getFailure(int i)
+    {
+        return mFailures.get(i);
+    }
+}
@@ -25,9 +25,8 @@
 
 package de.webis.chatnoir2.webclient.search;
 
-import de.webis.chatnoir2.webclient.resources.ConfigLoader;
 import de.webis.chatnoir2.webclient.resources.ConfigLoader.Config;
-import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.collapse.CollapseBuilder;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
@@ -35,6 +34,7 @@ import org.elasticsearch.search.rescore.QueryRescorerBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provider for pure phrase search.
@@ -51,23 +51,35 @@ public class PhraseSearch extends SimpleSearch
      */
     private final Config mPhraseConfig;
 
-    /**
-     * Config object shortcut to simple search config.
-     */
-    private final Config mSimpleConfig;
-
     public PhraseSearch(final String[] indices)
     {
         super(indices);
         mPhraseConfig = getConf().get("search.phrase_search");
-        mSimpleConfig = getConf().get("search.default_simple");
     }
 
     @Override
-    protected SearchRequestBuilder buildSearchRequest(StringBuffer queryString, int from, int size)
+    protected SearchRequest buildSearchRequest(StringBuffer queryString, int from, int size)
+    {
+        final SearchRequest request = super.buildSearchRequest(queryString, from, size);
+
+        // field collapsing cannot be combined with search cursors
+        if (!isCursorMode()) {
+            request.source().collapse(new CollapseBuilder("warc_target_hostname.raw"));
+        }
+        return request;
+    }
+
+    @Override
+    protected StringBuffer prepareQuery(String query)
+    {
+        // phrase queries are matched literally without parsing any operators
+        return new StringBuffer(query);
+    }
+
+    @Override
+    protected String getSearchTypeKey()
     {
-        return super.buildSearchRequest(queryString, from, size)
-                .setCollapse(new CollapseBuilder("warc_target_hostname.raw"));
+        return super.getSearchTypeKey() + ":" + mSlop;
     }
 
     @Override
@@ -80,7 +92,10 @@ public class PhraseSearch extends SimpleSearch
     protected HighlightBuilder buildFieldHighlighter()
     {
         return new HighlightBuilder()
-                .field("body_lang." + getSearchLanguage(), getSnippetLength(), 1)
+                .field(new HighlightBuilder.Field("body_lang." + getSearchLanguage())
+                        .fragmentSize(getSnippetLength())
+                        .numOfFragments(1)
+                        .noMatchSize(getSnippetLength()))
                 .encoder("html");
     }
 
@@ -124,16 +139,14 @@ public class PhraseSearch extends SimpleSearch
      */
     protected void addSimpleSearchFields(BoolQueryBuilder query, StringBuffer queryString, List<String> blackList)
     {
-        ConfigLoader.Config[] simpleSearchFields = mSimpleConfig.getArray("main_fields");
-        for (ConfigLoader.Config field : simpleSearchFields) {
-            String fieldName = replaceLocalePlaceholders(field.getString("name"));
-            if (blackList.contains(fieldName)) {
+        for (Map.Entry<String, Float> field : getQueryTemplate().getRescoreFields().entrySet()) {
+            if (blackList.contains(field.getKey())) {
                 // we already scored by this field
                 continue;
             }
 
-            MatchQueryBuilder matchQuery = QueryBuilders.matchQuery(fieldName, queryString.toString());
-            matchQuery.boost(field.getFloat("boost", 1.0f));
+            MatchQueryBuilder matchQuery = QueryBuilders.matchQuery(field.getKey(), queryString.toString());
+            matchQuery.boost(field.getValue());
             query.should(matchQuery);
         }
     }
@@ -25,8 +25,10 @@
 
 package de.webis.chatnoir2.webclient.search;
 
+import de.webis.chatnoir2.webclient.util.RequestTrace;
 import de.webis.chatnoir2.webclient.util.TextCleanser;
 import org.apache.commons.lang.StringEscapeUtils;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.text.Text;
 import org.elasticsearch.search.SearchHit;
@@ -61,12 +63,23 @@ public abstract class SearchProvider extends IndexRetrievalOperator
      */
     private boolean mGroupByHostname = true;
 
+    /**
+     * Whether to search each index with a separate concurrent request.
+     */
+    private boolean mFanOut;
+
+    /**
+     * Trace of the request this search is run for.
+     */
+    private RequestTrace mTrace = RequestTrace.NONE;
+
     public SearchProvider(final String[] indices)
     {
         super(indices);
         mGroupByHostname = getConf().getBoolean("serp.group_by_hostname", true);
         mSnippetLength = getConf().getInteger("serp.snippet_length", mSnippetLength);
         mTitleLength   = getConf().getInteger("serp.title_length", mTitleLength);
+        mFanOut        = getConf().getBoolean("search.fan_out.enabled", false);
     }
 
     public SearchProvider()
@@ -83,6 +96,19 @@ public abstract class SearchProvider extends IndexRetrievalOperator
      */
     public abstract void doSearch(String query, int from, int size);
 
+    /**
+     * Run a search based on given search fields without blocking the calling thread.
+     * The given listener will be notified on an Elasticsearch network thread as soon as
+     * the response is available. Listeners should therefore not do any heavy lifting
+     * themselves, but hand off further processing to another thread.
+     *
+     * @param query search query
+     * @param from first result to return
+     * @param size number of results to return
+     * @param listener listener to notify when the search has completed or failed
+     */
+    public abstract void doSearchAsync(String query, int from, int size, ActionListener<SearchResponse> listener);
+
     /**
      * Get Elasticsearch SearchResponse object for the current search.
      *
@@ -115,6 +141,8 @@ public abstract class SearchProvider extends IndexRetrievalOperator
             return results;
         }
 
+        final long startTime = System.nanoTime();
+        long cleanseTime = 0;
         for (SearchHit hit: getResponse().getHits()) {
             final Map<String, Object> source = hit.getSourceAsMap();
 
@@ -126,12 +154,13 @@ public abstract class SearchProvider extends IndexRetrievalOperator
                 }
             }
 
-            // use meta description or first body part if no highlighted snippet available
-            if (snippet.isEmpty() && null != source.get("meta_desc_lang." + getSearchLanguage())) {
-                if (!source.get("meta_desc_lang." + getSearchLanguage()).toString().isEmpty()) {
-                    snippet = StringEscapeUtils.escapeHtml(
-                            truncateSnippet((String) source.get("meta_desc_lang." + getSearchLanguage()), mSnippetLength));
-                } else {
+            // without any highlighted terms, the snippet is only the beginning of the body,
+            // so prefer the meta description in that case
+            if (!snippet.contains("<em>")) {
+                final String metaDesc = (String) source.get("meta_desc_lang." + getSearchLanguage());
+                if (null != metaDesc && !metaDesc.isEmpty()) {
+                    snippet = StringEscapeUtils.escapeHtml(truncateSnippet(metaDesc, mSnippetLength));
+                } else if (snippet.isEmpty() && null != source.get("body_lang." + getSearchLanguage())) {
                     snippet = StringEscapeUtils.escapeHtml(
                             truncateSnippet((String) source.get("body_lang." + getSearchLanguage()), mSnippetLength));
                 }
@@ -139,7 +168,9 @@ public abstract class SearchProvider extends IndexRetrievalOperator
             if (null == snippet || snippet.trim().isEmpty()) {
                 snippet = "[ no snippet available ]";
             } else {
+                final long cleanseStart = System.nanoTime();
                 snippet = TextCleanser.cleanseAll(snippet, true);
+                cleanseTime += System.nanoTime() - cleanseStart;
             }
 
             // use highlighted title if available
@@ -154,7 +185,9 @@ public abstract class SearchProvider extends IndexRetrievalOperator
             if (null == title || title.trim().isEmpty()) {
                 title = "[ no title available ]";
             } else {
+                final long cleanseStart = System.nanoTime();
                 title = TextCleanser.cleanseAll(title, true);
+                cleanseTime += System.nanoTime() - cleanseStart;
             }
 
             String targetPath = (String) source.get("warc_target_path");
@@ -174,17 +207,89 @@ public abstract class SearchProvider extends IndexRetrievalOperator
                     .targetPath(targetPath)
                     .targetUri((String) source.get("warc_target_uri"))
                     .snippet(snippet)
-                    .fullBody((String) source.get("body_lang." + getSearchLanguage()))
                     .pageRank((Double) source.get("page_rank"))
                     .spamRank((Integer) source.get("spam_rank"))
                     .explanation(hit.getExplanation())
                     .build();
             results.add(result);
         }
+        mTrace.recordSince("result_conversion", startTime);
+        mTrace.record("text_cleanse", cleanseTime);
 
         return results;
     }
 
+    /**
+     * Set the trace of the request this search is run for, so phase timings
+     * of the search can be recorded into it.
+     *
+     * @param trace request trace
+     */
+    public void setTrace(RequestTrace trace)
+    {
+        mTrace = null != trace ? trace : RequestTrace.NONE;
+    }
+
+    /**
+     * @return trace of the request this search is run for
+     */
+    public RequestTrace getTrace()
+    {
+        return mTrace;
+    }
+
+    /**
+     * Get the document source fields required for building search results.
+     * Only these fields are retrieved from the index, so the (potentially very large)
+     * document body is not transferred and parsed.
+     *
+     * @return source fields to retrieve
+     */
+    protected String[] getSourceFields()
+    {
+        return new String[] {
+                "warc_trec_id",
+                "warc_target_hostname",
+                "warc_target_path",
+                "warc_target_uri",
+                "page_rank",
+                "spam_rank",
+                "title_lang." + getSearchLanguage(),
+                "meta_desc_lang." + getSearchLanguage()};
+    }
+
+    /**
+     * @return whether each index is searched with a separate concurrent request
+     */
+    public boolean isFanOut()
+    {
+        return mFanOut;
+    }
+
+    /**
+     * Set whether to search each index with a separate concurrent request.
+     * In fan-out mode, every index has its own timeout, so a single slow index cannot hold
+     * back results from the others. Results of all indices are merged by score. Indices which
+     * did not respond in time are reported by {@link #getPartialIndices()}.
+     *
+     * @param fanOut true to enable fan-out mode
+     */
+    public void setFanOut(boolean fanOut)
+    {
+        mFanOut = fanOut;
+    }
+
+    /**
+     * Get the indices which did not return complete results for the last search,
+     * e.g., because they timed out.
+     *
+     * @return list of index names (empty if all results are complete)
+     */
+    public List<String> getPartialIndices()
+    {
+        return Collections.emptyList();
+    }
+
     /**
      * @return the total number of results found for the last search request.
      */
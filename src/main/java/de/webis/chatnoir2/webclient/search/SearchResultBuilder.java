@@ -25,8 +25,6 @@
 
 package de.webis.chatnoir2.webclient.search;
 
-import de.webis.chatnoir2.webclient.resources.ConfigLoader;
-import de.webis.chatnoir2.webclient.util.Configured;
 import org.apache.lucene.search.Explanation;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.xcontent.ToXContent;
@@ -72,22 +70,15 @@ public class SearchResultBuilder
 
     public SearchResultBuilder index(String index)
     {
-        String displayIndex = index;
-        ConfigLoader.Config[] conf = Configured.getConf().getArray("cluster.index_aliases");
-        if (conf.length != 0) {
-            for (ConfigLoader.Config c : conf) {
-                if (c.getString("index", "").equals(index)) {
-                    index = c.getString("alias", "");
-                    if (c.contains("display_name")) {
-                        displayIndex = c.getString("display_name");
-                    }
-
-                    break;
-                }
-            }
+        final IndexAliasRegistry aliases = IndexAliasRegistry.getInstance();
+        final String alias = aliases.getAlias(index);
+        if (null != alias) {
+            mSearchResult.mIndex = alias;
+            mSearchResult.mDisplayIndex = aliases.getDisplayNameOrName(index);
+        } else {
+            mSearchResult.mIndex = index;
+            mSearchResult.mDisplayIndex = index;
         }
-        mSearchResult.mIndex = index;
-        mSearchResult.mDisplayIndex = displayIndex;
         return this;
     }
 
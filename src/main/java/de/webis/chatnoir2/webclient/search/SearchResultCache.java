@@ -0,0 +1,189 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.search;
+
+import de.webis.chatnoir2.webclient.util.CacheManager;
+import org.apache.shiro.cache.Cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache for search results of frequent queries.
+ * Size and expiry of cached entries are configured in <tt>ehcache.xml</tt>.
+ */
+public class SearchResultCache
+{
+    /**
+     * Name of EH search result cache.
+     */
+    private static final String CACHE_NAME = SearchResultCache.class.getName() + "-0-results";
+
+    /**
+     * Number of cache hits.
+     */
+    private static final LongAdder sHits = new LongAdder();
+
+    /**
+     * Number of cache misses.
+     */
+    private static final LongAdder sMisses = new LongAdder();
+
+    /**
+     * Build a cache key for a search request.
+     *
+     * @param searchType search type identifier (e.g. provider class and type-specific settings)
+     * @param query user query string
+     * @param indices effective indices to search
+     * @param language search language
+     * @param from first result to return
+     * @param size number of results to return
+     * @param explain whether results are explained
+     * @return cache key
+     */
+    public static String buildKey(String searchType, String query, String[] indices, String language,
+                                  int from, int size, boolean explain)
+    {
+        String[] sortedIndices = Arrays.copyOf(indices, indices.length);
+        Arrays.sort(sortedIndices);
+
+        return searchType + '\u0000' +
+                String.join(",", sortedIndices) + '\u0000' +
+                language + '\u0000' +
+                from + '\u0000' +
+                size + '\u0000' +
+                explain + '\u0000' +
+                query.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Look up a cached search result.
+     *
+     * @param key cache key
+     * @return cached entry or null if there is none
+     */
+    public static Entry get(String key)
+    {
+        Entry entry = getCache().get(key);
+        if (null == entry) {
+            sMisses.increment();
+        } else {
+            sHits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Add a search result to the cache.
+     *
+     * @param key cache key
+     * @param entry entry to cache
+     */
+    public static void put(String key, Entry entry)
+    {
+        getCache().put(key, entry);
+    }
+
+    /**
+     * @return number of cache hits since application start
+     */
+    public static long getHits()
+    {
+        return sHits.sum();
+    }
+
+    /**
+     * @return number of cache misses since application start
+     */
+    public static long getMisses()
+    {
+        return sMisses.sum();
+    }
+
+    /**
+     * Remove all cached search results, e.g., after the search configuration has changed.
+     */
+    public static void clear()
+    {
+        getCache().clear();
+    }
+
+    /**
+     * @return number of entries currently in the cache
+     */
+    public static int getSize()
+    {
+        return getCache().size();
+    }
+
+    private static Cache<String, Entry> getCache()
+    {
+        return new CacheManager().getCache(CACHE_NAME);
+    }
+
+    /**
+     * Cached search result. Instances are shared between requests and must not be modified.
+     */
+    public static class Entry
+    {
+        private final List<SearchResultBuilder.SearchResult> mResults;
+        private final long mTotalResultNumber;
+        private final boolean mTerminatedEarly;
+
+        public Entry(List<SearchResultBuilder.SearchResult> results, long totalResultNumber, boolean terminatedEarly)
+        {
+            mResults = Collections.unmodifiableList(results);
+            mTotalResultNumber = totalResultNumber;
+            mTerminatedEarly = terminatedEarly;
+        }
+
+        /**
+         * @return cached (grouped) search results
+         */
+        public List<SearchResultBuilder.SearchResult> getResults()
+        {
+            return mResults;
+        }
+
+        /**
+         * @return total number of hits
+         */
+        public long getTotalResultNumber()
+        {
+            return mTotalResultNumber;
+        }
+
+        /**
+         * @return whether the search terminated early
+         */
+        public boolean isTerminatedEarly()
+        {
+            return mTerminatedEarly;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.search;
+
+import de.webis.chatnoir2.webclient.resources.ConfigLoader;
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.index.query.RegexpQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FieldValueFactorFunctionBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable, pre-compiled static part of a simple search query for a single search language.
+ *
+ * Templates are compiled once from the <tt>search.default_simple</tt> configuration section
+ * with all <tt>%lang%</tt> placeholders resolved, so that search requests only need to plug in
+ * the user query string. Query builders held by a template are shared between requests
+ * and must not be modified.
+ */
+public class SimpleQueryTemplate
+{
+    /**
+     * Compiled templates of the current configuration snapshot.
+     */
+    private static volatile TemplateCache sCache = new TemplateCache(null);
+
+    private final String mLanguage;
+    private final Map<String, Float> mMatchFields;
+    private final Map<String, Float> mRescoreFields;
+    private final List<ProximityField> mProximityFields;
+    private final List<String> mFuzzyFields;
+    private final List<QueryBuilder> mRangeFilters;
+    private final List<QueryBuilder> mNegatedRangeFilters;
+    private final List<QueryBuilder> mMatchBoosts;
+    private final List<QueryBuilder> mRescoreBoosts;
+    private final List<FieldValueFactorFunctionBuilder> mFieldValueFactors;
+    private final QueryBuilder mPenaltyQuery;
+    private final float mPenaltyFactor;
+    private final List<QueryFilter> mQueryFilters;
+    private final int mNodeLimit;
+    private final int mRescoreWindow;
+
+    /**
+     * Get the compiled query template for a given search language.
+     * Templates are compiled on first use and recompiled when the system configuration changes.
+     *
+     * @param language search language (two-characters language code)
+     * @return compiled query template
+     */
+    public static SimpleQueryTemplate getTemplate(String language)
+    {
+        final ConfigLoader.Config conf = Configured.getConf();
+        TemplateCache cache = sCache;
+        if (cache.mConfig != conf) {
+            // templates are only ever looked up in a cache of the caller's own snapshot, so a thread
+            // still holding an older snapshot may briefly replace the cache, but never mixes snapshots
+            cache = new TemplateCache(conf);
+            sCache = cache;
+        }
+        return cache.mTemplates.computeIfAbsent(language,
+                l -> new SimpleQueryTemplate(conf.get("search.default_simple"), l));
+    }
+
+    /**
+     * Validate that query templates can be compiled from a configuration.
+     * Templates are compiled for all languages which have been used so far, or for English
+     * if no template has been used yet.
+     *
+     * @param conf system configuration to validate
+     * @throws RuntimeException if the search configuration is invalid
+     */
+    public static void validate(ConfigLoader.Config conf)
+    {
+        final Set<String> languages = new HashSet<>(sCache.mTemplates.keySet());
+        if (languages.isEmpty()) {
+            languages.add("en");
+        }
+        for (String language : languages) {
+            new SimpleQueryTemplate(conf.get("search.default_simple"), language);
+        }
+    }
+
+    /**
+     * @param config search configuration section
+     * @param language search language
+     */
+    private SimpleQueryTemplate(ConfigLoader.Config config, String language)
+    {
+        mLanguage = language;
+
+        // main fields
+        final Map<String, Float> matchFields = new LinkedHashMap<>();
+        final Map<String, Float> rescoreFields = new LinkedHashMap<>();
+        final List<ProximityField> proximityFields = new ArrayList<>();
+        final List<String> fuzzyFields = new ArrayList<>();
+        for (final ConfigLoader.Config field : config.getArray("main_fields")) {
+            final String fieldName = localize(field.getString("name", ""));
+            matchFields.put(fieldName, 1.0f);
+            rescoreFields.put(fieldName, field.getFloat("boost", 1.0f));
+
+            if (field.getBoolean("proximity_matching", false)) {
+                proximityFields.add(new ProximityField(
+                        fieldName,
+                        field.getInteger("proximity_slop", 1),
+                        field.getFloat("proximity_boost", 1.0f) / 2.0f));
+            }
+
+            if (field.getBoolean("fuzzy_matching", false)) {
+                fuzzyFields.add(fieldName);
+            }
+        }
+        mMatchFields = Collections.unmodifiableMap(matchFields);
+        mRescoreFields = Collections.unmodifiableMap(rescoreFields);
+        mProximityFields = Collections.unmodifiableList(proximityFields);
+        mFuzzyFields = Collections.unmodifiableList(fuzzyFields);
+
+        // range filters
+        final List<QueryBuilder> rangeFilters = new ArrayList<>();
+        final List<QueryBuilder> negatedRangeFilters = new ArrayList<>();
+        for (final ConfigLoader.Config filterConfig : config.getArray("range_filters")) {
+            final String fieldName = localize(filterConfig.getString("name", ""));
+
+            final RangeQueryBuilder rangeFilter = QueryBuilders.rangeQuery(fieldName);
+            if (null != filterConfig.getDouble("gt")) {
+                rangeFilter.gt(filterConfig.getDouble("gt"));
+            }
+            if (null != filterConfig.getDouble("gte")) {
+                rangeFilter.gte(filterConfig.getDouble("gte"));
+            }
+            if (null != filterConfig.getDouble("lt")) {
+                rangeFilter.lt(filterConfig.getDouble("lt"));
+            }
+            if (null != filterConfig.getDouble("lte")) {
+                rangeFilter.lte(filterConfig.getDouble("lte"));
+            }
+
+            QueryBuilder filterQuery = rangeFilter;
+            if (filterConfig.contains("include_unset") && filterConfig.getBoolean("include_unset")) {
+                BoolQueryBuilder mustNotExistQuery = QueryBuilders.boolQuery();
+                mustNotExistQuery.mustNot(QueryBuilders.existsQuery(fieldName));
+
+                BoolQueryBuilder wrapperQuery = QueryBuilders.boolQuery();
+                wrapperQuery.should(rangeFilter);
+                wrapperQuery.should(mustNotExistQuery);
+                filterQuery = wrapperQuery;
+            }
+
+            if (filterConfig.getBoolean("negate", false)) {
+                negatedRangeFilters.add(filterQuery);
+            } else {
+                rangeFilters.add(filterQuery);
+            }
+        }
+        mRangeFilters = Collections.unmodifiableList(rangeFilters);
+        mNegatedRangeFilters = Collections.unmodifiableList(negatedRangeFilters);
+
+        // field value boosts
+        final List<QueryBuilder> matchBoosts = new ArrayList<>();
+        final List<QueryBuilder> rescoreBoosts = new ArrayList<>();
+        for (final ConfigLoader.Config c : config.getArray("boosts")) {
+            RegexpQueryBuilder regExpQuery = QueryBuilders.regexpQuery(
+                    localize(c.getString("name")),
+                    localize(c.getString("value")));
+            regExpQuery.boost(c.getFloat("match_boost", 1.0f));
+
+            rescoreBoosts.add(regExpQuery);
+            if (c.getBoolean("match")) {
+                matchBoosts.add(regExpQuery);
+            }
+        }
+        mMatchBoosts = Collections.unmodifiableList(matchBoosts);
+        mRescoreBoosts = Collections.unmodifiableList(rescoreBoosts);
+
+        // field value factors
+        final List<FieldValueFactorFunctionBuilder> fieldValueFactors = new ArrayList<>();
+        for (final ConfigLoader.Config c : config.getArray("field_value_factors")) {
+            FieldValueFactorFunctionBuilder valueFactor = new FieldValueFactorFunctionBuilder(c.getString("name"));
+            valueFactor
+                    .factor(c.getFloat("factor", 1.0f))
+                    .modifier(FieldValueFactorFunction.Modifier.fromString(c.getString("modifier", "")))
+                    .missing(c.getFloat("missing", 1.0f));
+            fieldValueFactors.add(valueFactor);
+        }
+        mFieldValueFactors = Collections.unmodifiableList(fieldValueFactors);
+
+        // penalties
+        final ConfigLoader.Config penalties = config.get("penalties");
+        final ConfigLoader.Config[] penaltyFields = penalties.getArray("fields");
+        if (penaltyFields.length > 0) {
+            BoolQueryBuilder penaltyQuery = QueryBuilders.boolQuery();
+            for (ConfigLoader.Config c : penaltyFields) {
+                QueryBuilder penaltyInnerQuery;
+                if (c.contains("regexp")) {
+                    penaltyInnerQuery = QueryBuilders.regexpQuery(
+                            localize(c.getString("name")),
+                            localize(c.getString("regexp")));
+                } else {
+                    penaltyInnerQuery = QueryBuilders.matchQuery(
+                            localize(c.getString("name")),
+                            localize(c.getString("value")));
+                }
+                penaltyInnerQuery.boost(c.getFloat("boost", 2.0f));
+                penaltyQuery.should(penaltyInnerQuery);
+            }
+            mPenaltyQuery = penaltyQuery;
+        } else {
+            mPenaltyQuery = null;
+        }
+        mPenaltyFactor = penalties.getFloat("penalty_factor", 0.2f);
+
+        // query string filters
+        final List<QueryFilter> queryFilters = new ArrayList<>();
+        for (final ConfigLoader.Config c : config.getArray("query_filters")) {
+            queryFilters.add(new QueryFilter(c.getString("keyword"), c.getString("field")));
+        }
+        mQueryFilters = Collections.unmodifiableList(queryFilters);
+
+        mNodeLimit = config.getInteger("node_limit", 200000);
+        mRescoreWindow = config.getInteger("rescore_window", 400);
+    }
+
+    /**
+     * Replace language placeholders in a field name or value.
+     *
+     * @param value string with language placeholders
+     * @return localized string
+     */
+    private String localize(String value)
+    {
+        return value.replace("%lang%", mLanguage);
+    }
+
+    /**
+     * @return search language of this template
+     */
+    public String getLanguage()
+    {
+        return mLanguage;
+    }
+
+    /**
+     * @return localized main fields to search during match phase (with unit boosts)
+     */
+    public Map<String, Float> getMatchFields()
+    {
+        return mMatchFields;
+    }
+
+    /**
+     * @return localized main fields and their boosts to search during rescoring
+     */
+    public Map<String, Float> getRescoreFields()
+    {
+        return mRescoreFields;
+    }
+
+    /**
+     * @return localized fields for proximity matching
+     */
+    public List<ProximityField> getProximityFields()
+    {
+        return mProximityFields;
+    }
+
+    /**
+     * @return localized fields for fuzzy matching
+     */
+    public List<String> getFuzzyFields()
+    {
+        return mFuzzyFields;
+    }
+
+    /**
+     * @return pre-built range filters
+     */
+    public List<QueryBuilder> getRangeFilters()
+    {
+        return mRangeFilters;
+    }
+
+    /**
+     * @return pre-built negated range filters
+     */
+    public List<QueryBuilder> getNegatedRangeFilters()
+    {
+        return mNegatedRangeFilters;
+    }
+
+    /**
+     * @param match only return boosts which are allowed during match phase (pre-query)
+     * @return pre-built boosting queries
+     */
+    public List<QueryBuilder> getBoosts(boolean match)
+    {
+        return match ? mMatchBoosts : mRescoreBoosts;
+    }
+
+    /**
+     * @return pre-built field value factor functions in the order they are to be applied
+     */
+    public List<FieldValueFactorFunctionBuilder> getFieldValueFactors()
+    {
+        return mFieldValueFactors;
+    }
+
+    /**
+     * @return pre-built penalty query or null if no penalties are configured
+     */
+    public QueryBuilder getPenaltyQuery()
+    {
+        return mPenaltyQuery;
+    }
+
+    /**
+     * @return negative boost factor for penalized results
+     */
+    public float getPenaltyFactor()
+    {
+        return mPenaltyFactor;
+    }
+
+    /**
+     * @return supported query string filters
+     */
+    public List<QueryFilter> getQueryFilters()
+    {
+        return mQueryFilters;
+    }
+
+    /**
+     * @return node limit after which to terminate search
+     */
+    public int getNodeLimit()
+    {
+        return mNodeLimit;
+    }
+
+    /**
+     * @return window size for query rescorer
+     */
+    public int getRescoreWindow()
+    {
+        return mRescoreWindow;
+    }
+
+    /**
+     * Field configured for proximity matching.
+     */
+    public static class ProximityField
+    {
+        private final String mName;
+        private final int mSlop;
+        private final float mBoost;
+
+        private ProximityField(String name, int slop, float boost)
+        {
+            mName = name;
+            mSlop = slop;
+            mBoost = boost;
+        }
+
+        public String getName()
+        {
+            return mName;
+        }
+
+        public int getSlop()
+        {
+            return mSlop;
+        }
+
+        public float getBoost()
+        {
+            return mBoost;
+        }
+    }
+
+    /**
+     * User-defined query string filter (such as site:example.com).
+     */
+    public static class QueryFilter
+    {
+        private final String mKeyword;
+        private final String mField;
+
+        private QueryFilter(String keyword, String field)
+        {
+            mKeyword = keyword;
+            mField = field;
+        }
+
+        public String getKeyword()
+        {
+            return mKeyword;
+        }
+
+        public String getField()
+        {
+            return mField;
+        }
+    }
+
+    /**
+     * Compiled templates together with the configuration snapshot they were compiled from.
+     */
+    private static final class TemplateCache
+    {
+        private final ConfigLoader.Config mConfig;
+        private final ConcurrentHashMap<String, SimpleQueryTemplate> mTemplates = new ConcurrentHashMap<>();
+
+        private TemplateCache(ConfigLoader.Config config)
+        {
+            mConfig = config;
+        }
+    }
+}
@@ -26,19 +26,36 @@
 package de.webis.chatnoir2.webclient.search;
 
 import de.webis.chatnoir2.webclient.resources.ConfigLoader;
-import org.elasticsearch.action.search.SearchRequestBuilder;
+import de.webis.chatnoir2.webclient.util.ClusterClient;
+import de.webis.chatnoir2.webclient.util.Configured;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.unit.Fuzziness;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.*;
-import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.index.query.functionscore.FieldValueFactorFunctionBuilder;;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.elasticsearch.search.rescore.QueryRescoreMode;
 import org.elasticsearch.search.rescore.QueryRescorerBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 
 /**
@@ -48,10 +65,66 @@ import java.util.*;
  */
 public class SimpleSearch extends SearchProvider
 {
+    /**
+     * Search timeout in milliseconds.
+     */
+    public static final int SEARCH_TIMEOUT = 20000;
+
+    /**
+     * Maximum result window (from + size) of paginated searches imposed by Elasticsearch.
+     * Results beyond this window can only be retrieved with search cursors or exports.
+     */
+    public static final int MAX_RESULT_WINDOW = 10000;
+
+    /**
+     * Scroll context keep-alive time for result exports.
+     */
+    private static final TimeValue EXPORT_SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    /**
+     * Time in milliseconds to wait for partial results of a timed out index in fan-out mode
+     * before giving up on the index entirely.
+     */
+    private static final long FAN_OUT_TIMEOUT_GRACE = 1000;
+
+    /**
+     * Timer for enforcing per-index timeouts in fan-out mode.
+     */
+    private static final ScheduledExecutorService sFanOutTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SimpleSearch-fan-out-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Number of Elasticsearch search responses received since application start.
+     */
+    private static final LongAdder sResponses = new LongAdder();
+
+    /**
+     * Number of search responses with timed out shards or indices.
+     */
+    private static final LongAdder sTimedOutResponses = new LongAdder();
+
+    /**
+     * Number of search responses which terminated early.
+     */
+    private static final LongAdder sTerminatedEarlyResponses = new LongAdder();
+
     /**
      * Elasticsearch response object of the last search.
      */
-    private SearchResponse mResponse = new SearchResponse();
+    private volatile SearchResponse mResponse = new SearchResponse();
+
+    /**
+     * Result cache key of the last search.
+     */
+    private String mCacheKey = null;
+
+    /**
+     * Cached result of the last search.
+     */
+    private volatile SearchResultCache.Entry mCachedResult = null;
 
     /**
      * Whether to add explanation to search results.
@@ -59,14 +132,43 @@ public class SimpleSearch extends SearchProvider
     private boolean mExplain = false;
 
     /**
-     * Config object shortcut.
+     * Whether to paginate with search cursors instead of result offsets.
+     */
+    private boolean mCursorMode = false;
+
+    /**
+     * Sort values of the last result before the requested page in cursor mode.
+     */
+    private Object[] mSearchAfter = null;
+
+    /**
+     * Number of results requested by the last search.
+     */
+    private int mRequestedSize = 0;
+
+    /**
+     * Filter query built from the operators of the last parsed query string (may be null).
      */
-    private final ConfigLoader.Config mSimpleSearchConfig;
+    private QueryBuilder mQueryFilter = null;
+
+    /**
+     * Indices which did not return complete results for the last search.
+     */
+    private volatile List<String> mPartialIndices = Collections.emptyList();
+
+    /**
+     * Pattern for replacing AND operators outside of phrases.
+     */
+    private static final Pattern AND_PATTERN = Pattern.compile("(?!\\B\"[^\"]*) AND (?![^\"]*\"\\B)");
+
+    /**
+     * Pattern for replacing OR operators outside of phrases.
+     */
+    private static final Pattern OR_PATTERN = Pattern.compile("(?!\\B\"[^\"]*) OR (?![^\"]*\"\\B)");
 
     public SimpleSearch(final String[] indices)
     {
         super(indices);
-        mSimpleSearchConfig = getConf().get("search.default_simple");
     }
 
     public SimpleSearch()
@@ -92,20 +194,673 @@ public class SimpleSearch extends SearchProvider
         return mExplain;
     }
 
+    /**
+     * Enable cursor-based pagination and set the cursor after which to continue.
+     * In cursor mode, results are sorted by score and the configured unique tiebreaker field
+     * and result offsets are ignored, so pages can be retrieved beyond the {@link #MAX_RESULT_WINDOW}
+     * at constant cost. Cursor searches are neither rescored, cached nor terminated early.
+     *
+     * @param cursor cursor as returned by {@link #getNextCursor()} or null / empty to start at the first result
+     * @throws IllegalArgumentException if <tt>cursor</tt> is invalid
+     */
+    public void setSearchAfter(@Nullable String cursor) throws IllegalArgumentException
+    {
+        mCursorMode = true;
+        mSearchAfter = null;
+        if (null == cursor || cursor.isEmpty()) {
+            return;
+        }
+
+        final String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid search cursor", e);
+        }
+        final int separator = decoded.indexOf(',');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Invalid search cursor");
+        }
+        try {
+            mSearchAfter = new Object[] {
+                    Float.parseFloat(decoded.substring(0, separator)),
+                    decoded.substring(separator + 1)};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid search cursor", e);
+        }
+    }
+
+    /**
+     * @return whether results are paginated with search cursors (or exported)
+     */
+    public boolean isCursorMode()
+    {
+        return mCursorMode;
+    }
+
+    /**
+     * Get the cursor for retrieving the page following the results of the last cursor search.
+     *
+     * @return cursor or null if there are no further results or this search is not in cursor mode
+     */
+    @Nullable
+    public String getNextCursor()
+    {
+        final SearchResponse response = getResponse();
+        if (!mCursorMode || null == response || null == response.getHits()) {
+            return null;
+        }
+
+        final SearchHit[] hits = response.getHits().getHits();
+        if (0 == hits.length || hits.length < mRequestedSize) {
+            return null;
+        }
+
+        final Object[] sortValues = hits[hits.length - 1].getSortValues();
+        if (sortValues.length < 2) {
+            return null;
+        }
+        final String cursor = sortValues[0] + "," + sortValues[1];
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Export all results of a search by scrolling over them in index order.
+     * Results are passed to <tt>consumer</tt> batch-wise as soon as they have been retrieved,
+     * so exports of large result sets do not need to be held in memory. Exported results
+     * are not rescored and the search stays in cursor mode afterwards.
+     *
+     * The export runs on the calling thread and blocks on each scroll request and on the consumer,
+     * which usually writes to a client connection. The Elasticsearch client is retained until the
+     * scroll has been cleared, so a configuration reload does not close it underneath the export.
+     *
+     * @param query user query string
+     * @param batchSize number of results to retrieve per batch
+     * @param limit maximum number of results to export (0 or less for no limit)
+     * @param consumer consumer for result batches
+     * @return total number of exported results
+     */
+    public long doExport(String query, int batchSize, long limit, Consumer<List<SearchResultBuilder.SearchResult>> consumer)
+    {
+        mCacheKey = null;
+        mCachedResult = null;
+        mResponse = null;
+
+        if (limit > 0 && limit < batchSize) {
+            batchSize = (int) limit;
+        }
+
+        // exports are sorted by index order, so they are subject to the same restrictions as cursor searches
+        mCursorMode = true;
+        mSearchAfter = null;
+
+        final SearchRequest request = buildSearchRequest(prepareQuery(query), 0, batchSize)
+                .scroll(EXPORT_SCROLL_KEEP_ALIVE);
+        request.source()
+                .sort(SortBuilders.fieldSort("_doc"))
+                .trackScores(true);
+        final ClusterClient client = getClient().retain();
+        long exported = 0;
+        try {
+            mResponse = client.search(request);
+            while (mResponse.getHits().getHits().length > 0 && (limit <= 0 || exported < limit)) {
+                List<SearchResultBuilder.SearchResult> results = super.getResults();
+                if (limit > 0 && exported + results.size() > limit) {
+                    results = results.subList(0, (int) (limit - exported));
+                }
+                consumer.accept(results);
+                exported += results.size();
+
+                if (null == mResponse.getScrollId() || (limit > 0 && exported >= limit)) {
+                    break;
+                }
+                mResponse = client.scroll(new SearchScrollRequest(mResponse.getScrollId())
+                        .scroll(EXPORT_SCROLL_KEEP_ALIVE));
+            }
+        } finally {
+            if (null != mResponse && null != mResponse.getScrollId()) {
+                client.clearScroll(mResponse.getScrollId());
+            }
+            client.release();
+        }
+
+        return exported;
+    }
+
     @Override
     public void doSearch(String query, int from, int size)
     {
-        // Elasticsearch pagination limits
-        from = Math.min(from, 10000);
-        size = from + size <= 10000 ? size : 0;
+        final StringBuffer queryString = prepareQuery(query);
+        if (lookupCachedResult(query, from, size)) {
+            return;
+        }
+        if (useFanOut()) {
+            final PlainActionFuture<SearchResponse> future = PlainActionFuture.newFuture();
+            doFanOutSearchAsync(queryString, from, size, future);
+            future.actionGet(new TimeValue(SEARCH_TIMEOUT));
+            return;
+        }
+        mPartialIndices = Collections.emptyList();
+        final SearchRequest request = buildPaginatedSearchRequest(queryString, from, size);
+        final long startTime = System.nanoTime();
+        mResponse = getClient().search(request);
+        traceResponse(startTime, mResponse);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the search can be answered from the result cache, the listener is notified
+     * immediately on the calling thread with a <tt>null</tt> response.
+     */
+    @Override
+    public void doSearchAsync(String query, int from, int size, ActionListener<SearchResponse> listener)
+    {
+        final StringBuffer queryString = prepareQuery(query);
+        if (lookupCachedResult(query, from, size)) {
+            listener.onResponse(null);
+            return;
+        }
+        if (useFanOut()) {
+            doFanOutSearchAsync(queryString, from, size, listener);
+            return;
+        }
 
-        mResponse = buildSearchRequest(new StringBuffer(query), from, size).get(new TimeValue(20000));
+        mPartialIndices = Collections.emptyList();
+        final SearchRequest request = buildPaginatedSearchRequest(queryString, from, size);
+        final long startTime = System.nanoTime();
+        getClient().search(request, ActionListener.wrap(
+                response -> {
+                    traceResponse(startTime, response);
+                    mResponse = response;
+                    listener.onResponse(response);
+                },
+                listener::onFailure));
+    }
+
+    /**
+     * Prepare the search request for running this search as part of a {@link MultiSearch}.
+     *
+     * @param query user query string
+     * @param from first result to return
+     * @param size number of results to return
+     * @return search request or null if the search can be answered from the result cache
+     */
+    SearchRequest prepareMultiSearchRequest(String query, int from, int size)
+    {
+        mPartialIndices = Collections.emptyList();
+        final StringBuffer queryString = prepareQuery(query);
+        if (lookupCachedResult(query, from, size)) {
+            return null;
+        }
+        return buildPaginatedSearchRequest(queryString, from, size);
+    }
+
+    /**
+     * Set the response of this search after it has been run as part of a {@link MultiSearch}.
+     *
+     * @param response search response
+     */
+    void setMultiSearchResponse(SearchResponse response)
+    {
+        if (null != response) {
+            countResponse(response);
+            getTrace().record("es_took", response.getTook().nanos());
+        }
+        mResponse = response;
+    }
+
+    /**
+     * Record the search round-trip time and the Elasticsearch-internal search time of a response.
+     *
+     * @param startTime time at which the request was sent as returned by {@link System#nanoTime()}
+     * @param response search response
+     */
+    private void traceResponse(long startTime, SearchResponse response)
+    {
+        getTrace().recordSince("search", startTime);
+        if (null != response) {
+            countResponse(response);
+            getTrace().record("es_took", response.getTook().nanos());
+        }
+    }
+
+    /**
+     * Update global response statistics.
+     *
+     * @param response search response
+     */
+    private static void countResponse(SearchResponse response)
+    {
+        sResponses.increment();
+        if (response.isTimedOut()) {
+            sTimedOutResponses.increment();
+        }
+        if (null != response.isTerminatedEarly() && response.isTerminatedEarly()) {
+            sTerminatedEarlyResponses.increment();
+        }
+    }
+
+    /**
+     * @return number of Elasticsearch search responses received since application start
+     */
+    public static long getResponseCount()
+    {
+        return sResponses.sum();
+    }
+
+    /**
+     * @return number of search responses with timed out shards or indices since application start
+     */
+    public static long getTimedOutResponseCount()
+    {
+        return sTimedOutResponses.sum();
+    }
+
+    /**
+     * @return number of search responses which terminated early since application start
+     */
+    public static long getTerminatedEarlyResponseCount()
+    {
+        return sTerminatedEarlyResponses.sum();
+    }
+
+    /**
+     * @return whether to run the next search in fan-out mode
+     */
+    private boolean useFanOut()
+    {
+        // cursors cannot be merged across independent requests
+        return isFanOut() && !mCursorMode && getEffectiveIndices().length > 1;
+    }
+
+    /**
+     * Search each effective index with a separate concurrent request and merge the results by score.
+     * Sub searches only retrieve document IDs and scores. Sources and highlights are fetched
+     * afterwards for the merged page only.
+     *
+     * @param queryString query string as returned by {@link #prepareQuery(String)}
+     * @param from first result to return
+     * @param size number of results to return
+     * @param listener listener to notify with the merged response
+     */
+    private void doFanOutSearchAsync(StringBuffer queryString, int from, int size, ActionListener<SearchResponse> listener)
+    {
+        from = Math.min(from, MAX_RESULT_WINDOW);
+        size = from + size <= MAX_RESULT_WINDOW ? size : 0;
+        mRequestedSize = size;
+
+        final String[] indices = getEffectiveIndices();
+        final long startTime = System.nanoTime();
+        final ActionListener<SearchResponse> pageListener = ActionListener.wrap(
+                response -> {
+                    traceResponse(startTime, response);
+                    mResponse = response;
+                    listener.onResponse(response);
+                },
+                listener::onFailure);
+        final FanOutCollector collector = new FanOutCollector(indices.length, from, size, ActionListener.wrap(
+                response -> fetchFanOutPage(queryString, response, pageListener),
+                listener::onFailure));
+
+        // every index needs to return the full window, since we don't know yet which hits make it onto the page
+        for (String index : indices) {
+            final long timeout = getIndexTimeout(index);
+            final long buildStart = System.nanoTime();
+            final SearchRequest request = buildSearchRequest(queryString, 0, from + size)
+                    .indices(index);
+
+            // the server-side timeout makes Elasticsearch stop searching shards which run late,
+            // so sub searches do not keep running on the cluster after the collector gave up on them
+            request.source()
+                    .timeout(TimeValue.timeValueMillis(timeout))
+                    .fetchSource(false)
+                    .highlighter(null);
+            getTrace().recordSince("query_build", buildStart);
+
+            final ScheduledFuture<?> timer = sFanOutTimer.schedule(
+                    () -> collector.onTimeout(index), timeout + FAN_OUT_TIMEOUT_GRACE, TimeUnit.MILLISECONDS);
+            getClient().search(request, ActionListener.wrap(
+                    response -> {
+                        timer.cancel(false);
+                        collector.onResponse(index, response);
+                    },
+                    e -> {
+                        timer.cancel(false);
+                        collector.onFailure(index, e);
+                    }));
+        }
+    }
+
+    /**
+     * Fetch sources and highlights of the hits on a merged fan-out result page with a single request.
+     * Hits which no longer exist are removed from the page.
+     *
+     * @param queryString query string as returned by {@link #prepareQuery(String)}
+     * @param merged merged fan-out response without sources
+     * @param listener listener to notify with the completed response
+     */
+    private void fetchFanOutPage(StringBuffer queryString, SearchResponse merged, ActionListener<SearchResponse> listener)
+    {
+        final SearchHit[] hits = merged.getHits().getHits();
+        if (0 == hits.length) {
+            listener.onResponse(merged);
+            return;
+        }
+
+        final Set<String> indices = new LinkedHashSet<>();
+        final IdsQueryBuilder idsQuery = QueryBuilders.idsQuery();
+        for (SearchHit hit : hits) {
+            indices.add(hit.getIndex());
+            idsQuery.addIds(hit.getId());
+        }
+
+        // document IDs are only unique within an index, so allow for duplicates across indices
+        final SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(idsQuery)
+                .size(hits.length * indices.size())
+                .fetchSource(getSourceFields(), null);
+        final HighlightBuilder highlightBuilder = buildFieldHighlighter();
+        if (null != highlightBuilder) {
+            sourceBuilder.highlighter(highlightBuilder.highlightQuery(buildPreQuery(queryString)));
+        }
+
+        final SearchRequest request = new SearchRequest(indices.toArray(new String[0])).source(sourceBuilder);
+        getClient().search(request, ActionListener.wrap(
+                response -> {
+                    final Map<String, SearchHit> fetched = new HashMap<>();
+                    for (SearchHit hit : response.getHits().getHits()) {
+                        fetched.put(hit.getIndex() + "/" + hit.getId(), hit);
+                    }
+
+                    final List<SearchHit> page = new ArrayList<>(hits.length);
+                    for (SearchHit hit : hits) {
+                        final SearchHit fetchedHit = fetched.get(hit.getIndex() + "/" + hit.getId());
+                        if (null != fetchedHit) {
+                            hit.sourceRef(fetchedHit.getSourceRef());
+                            hit.highlightFields(fetchedHit.getHighlightFields());
+                            page.add(hit);
+                        }
+                    }
+
+                    final InternalSearchResponse sections = new InternalSearchResponse(
+                            new SearchHits(page.toArray(new SearchHit[0]),
+                                    merged.getHits().getTotalHits(), merged.getHits().getMaxScore()),
+                            null, null, null, merged.isTimedOut(), merged.isTerminatedEarly(), 1);
+                    listener.onResponse(new SearchResponse(sections, null, merged.getTotalShards(),
+                            merged.getSuccessfulShards(), merged.getSkippedShards(),
+                            merged.getTook().millis() + response.getTook().millis(),
+                            merged.getShardFailures(), SearchResponse.Clusters.EMPTY));
+                },
+                listener::onFailure));
+    }
+
+    /**
+     * Get the fan-out search timeout of an index.
+     *
+     * @param index index name
+     * @return timeout in milliseconds
+     */
+    private long getIndexTimeout(String index)
+    {
+        for (ConfigLoader.Config c : getConf().getArray("search.fan_out.index_timeouts")) {
+            if (index.equals(c.getString("index"))) {
+                return c.getLong("timeout");
+            }
+        }
+        return getConf().getLong("search.fan_out.timeout", (long) SEARCH_TIMEOUT / 2);
+    }
+
+    @Override
+    public List<String> getPartialIndices()
+    {
+        return mPartialIndices;
+    }
+
+    /**
+     * Collects responses of fan-out sub searches and merges them once all indices have
+     * responded, failed or timed out.
+     */
+    private class FanOutCollector
+    {
+        private final AtomicInteger mPending;
+        private final int mFrom;
+        private final int mSize;
+        private final ActionListener<SearchResponse> mListener;
+        private final Set<String> mSettled = ConcurrentHashMap.newKeySet();
+        private final Map<String, SearchResponse> mResponses = new ConcurrentHashMap<>();
+        private final Set<String> mPartial = ConcurrentHashMap.newKeySet();
+        private volatile Exception mFailure = null;
+
+        private FanOutCollector(int numIndices, int from, int size, ActionListener<SearchResponse> listener)
+        {
+            mPending = new AtomicInteger(numIndices);
+            mFrom = from;
+            mSize = size;
+            mListener = listener;
+        }
+
+        private void onResponse(String index, SearchResponse response)
+        {
+            if (!mSettled.add(index)) {
+                // the index has already been given up on and its results are not part of the page
+                Configured.getSysLogger().debug(String.format("Discarding late response of index '%s'", index));
+                return;
+            }
+            mResponses.put(index, response);
+            if (response.isTimedOut() || response.getFailedShards() > 0) {
+                mPartial.add(index);
+            }
+            countDown();
+        }
+
+        private void onFailure(String index, Exception e)
+        {
+            if (!mSettled.add(index)) {
+                return;
+            }
+            Configured.getSysLogger().warn(String.format("Search on index '%s' failed", index), e);
+            mFailure = e;
+            mPartial.add(index);
+            countDown();
+        }
+
+        private void onTimeout(String index)
+        {
+            if (!mSettled.add(index)) {
+                return;
+            }
+            mPartial.add(index);
+            countDown();
+        }
+
+        private void countDown()
+        {
+            if (0 != mPending.decrementAndGet()) {
+                return;
+            }
+
+            final List<String> partial = new ArrayList<>(mPartial);
+            Collections.sort(partial);
+            mPartialIndices = Collections.unmodifiableList(partial);
+
+            if (mResponses.isEmpty()) {
+                mListener.onFailure(null != mFailure ? mFailure :
+                        new ElasticsearchTimeoutException("Search timed out on all indices"));
+                return;
+            }
+
+            try {
+                mListener.onResponse(merge());
+            } catch (Exception e) {
+                mListener.onFailure(e);
+            }
+        }
+
+        /**
+         * Merge all collected responses into a single response containing the requested page.
+         *
+         * @return merged response
+         */
+        private SearchResponse merge()
+        {
+            final List<SearchHit> hits = new ArrayList<>();
+            final List<ShardSearchFailure> failures = new ArrayList<>();
+            long totalHits = 0;
+            float maxScore = Float.NaN;
+            Boolean terminatedEarly = null;
+            int totalShards = 0;
+            int successfulShards = 0;
+            int skippedShards = 0;
+            long took = 0;
+
+            for (SearchResponse response : mResponses.values()) {
+                Collections.addAll(hits, response.getHits().getHits());
+                Collections.addAll(failures, response.getShardFailures());
+                totalHits += response.getHits().getTotalHits();
+                if (Float.isNaN(maxScore) || response.getHits().getMaxScore() > maxScore) {
+                    maxScore = response.getHits().getMaxScore();
+                }
+                if (null != response.isTerminatedEarly()) {
+                    terminatedEarly = response.isTerminatedEarly() || (null != terminatedEarly && terminatedEarly);
+                }
+                totalShards += response.getTotalShards();
+                successfulShards += response.getSuccessfulShards();
+                skippedShards += response.getSkippedShards();
+                took = Math.max(took, response.getTook().millis());
+            }
+
+            hits.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+            final List<SearchHit> page = hits.subList(Math.min(mFrom, hits.size()), Math.min(mFrom + mSize, hits.size()));
+
+            final InternalSearchResponse sections = new InternalSearchResponse(
+                    new SearchHits(page.toArray(new SearchHit[0]), totalHits, maxScore),
+                    null, null, null, !mPartial.isEmpty(), terminatedEarly, 1);
+            return new SearchResponse(sections, null, totalShards, successfulShards, skippedShards, took,
+                    failures.toArray(new ShardSearchFailure[0]), SearchResponse.Clusters.EMPTY);
+        }
+    }
+
+    /**
+     * Build search request and apply Elasticsearch pagination limits.
+     *
+     * @param queryString query string as returned by {@link #prepareQuery(String)}
+     * @param from first result to return
+     * @param size number of results to return
+     * @return configured SearchRequest
+     */
+    private SearchRequest buildPaginatedSearchRequest(StringBuffer queryString, int from, int size)
+    {
+        final long startTime = System.nanoTime();
+        final SearchRequest request;
+        if (mCursorMode) {
+            mRequestedSize = Math.min(size, MAX_RESULT_WINDOW);
+            final String tiebreaker = getConf().getString("search.cursor_tiebreaker_field", "warc_record_id");
+            request = buildSearchRequest(queryString, 0, mRequestedSize);
+            request.source()
+                    .sort(SortBuilders.scoreSort())
+                    .sort(SortBuilders.fieldSort(tiebreaker));
+            if (null != mSearchAfter) {
+                request.source().searchAfter(mSearchAfter);
+            }
+        } else {
+            // Elasticsearch pagination limits
+            from = Math.min(from, MAX_RESULT_WINDOW);
+            size = from + size <= MAX_RESULT_WINDOW ? size : 0;
+            mRequestedSize = size;
+            request = buildSearchRequest(queryString, from, size);
+        }
+        getTrace().recordSince("query_build", startTime);
+
+        return request;
+    }
+
+    /**
+     * Parse query string operators before the search is run. Operators such as <tt>#index:</tt>
+     * and <tt>lang:</tt> change the effective indices and search language, which need to be
+     * known before the result cache lookup and the selection of fan-out indices.
+     *
+     * @param query user query string
+     * @return query string with operators stripped
+     */
+    protected StringBuffer prepareQuery(String query)
+    {
+        final long startTime = System.nanoTime();
+        final StringBuffer queryString = new StringBuffer(query);
+        mQueryFilter = parseQueryStringOperators(queryString);
+        getTrace().recordSince("query_build", startTime);
+        return queryString;
+    }
+
+    /**
+     * Try to answer a search from the result cache.
+     *
+     * @param query user query string
+     * @param from first result to return
+     * @param size number of results to return
+     * @return true if a cached result was found
+     */
+    private boolean lookupCachedResult(String query, int from, int size)
+    {
+        if (mCursorMode) {
+            mCacheKey = null;
+            mCachedResult = null;
+            return false;
+        }
+
+        final long startTime = System.nanoTime();
+        mCacheKey = SearchResultCache.buildKey(getSearchTypeKey(), query, getEffectiveIndices(),
+                getSearchLanguage(), from, size, isExplain());
+        mCachedResult = SearchResultCache.get(mCacheKey);
+        getTrace().recordSince("cache_lookup", startTime);
+        return null != mCachedResult;
+    }
+
+    /**
+     * Identifier of this search type and its type-specific settings for use in result cache keys.
+     *
+     * @return search type identifier
+     */
+    protected String getSearchTypeKey()
+    {
+        return getClass().getName();
     }
 
     @Override
     public List<SearchResultBuilder.SearchResult> getResults()
     {
-        return groupResults(super.getResults());
+        if (null != mCachedResult) {
+            return mCachedResult.getResults();
+        }
+
+        final List<SearchResultBuilder.SearchResult> results = groupResults(super.getResults());
+
+        // do not cache incomplete results
+        final SearchResponse response = getResponse();
+        if (null != mCacheKey && null != response && !response.isTimedOut() && 0 == response.getFailedShards()) {
+            mCachedResult = new SearchResultCache.Entry(results, super.getTotalResultNumber(), super.isTerminatedEarly());
+            SearchResultCache.put(mCacheKey, mCachedResult);
+        }
+
+        return results;
+    }
+
+    @Override
+    public long getTotalResultNumber()
+    {
+        if (null != mCachedResult) {
+            return mCachedResult.getTotalResultNumber();
+        }
+        return super.getTotalResultNumber();
+    }
+
+    @Override
+    public boolean isTerminatedEarly()
+    {
+        if (null != mCachedResult) {
+            return mCachedResult.isTerminatedEarly();
+        }
+        return super.isTerminatedEarly();
     }
 
     @Override
@@ -120,30 +875,35 @@ public class SimpleSearch extends SearchProvider
      * @param queryString user query string
      * @param from first result to return
      * @param size number of results to return
-     * @return configured SearchRequestBuilder
+     * @return configured SearchRequest
      */
-    protected SearchRequestBuilder buildSearchRequest(StringBuffer queryString, int from, int size)
+    protected SearchRequest buildSearchRequest(StringBuffer queryString, int from, int size)
     {
-        SearchRequestBuilder requestBuilder = getClient()
-                .prepareSearch(getEffectiveIndices())
-                .setQuery(buildPreQuery(queryString))
-                .setFrom(from)
-                .setSize(size)
-                .setExplain(isExplain())
-                .setTerminateAfter(getNodeLimit())
-                .setProfile(false);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(buildPreQuery(queryString))
+                .from(from)
+                .size(size)
+                .explain(isExplain())
+                .fetchSource(getSourceFields(), null)
+                .profile(false);
+
+        // cursors and exports must be able to reach all results
+        if (!mCursorMode) {
+            sourceBuilder.terminateAfter(getNodeLimit());
+        }
 
-        QueryRescorerBuilder rescorer = buildRescorer(buildRescoreQuery(queryString));
+        // rescoring cannot be combined with explicit sorting as needed by cursors
+        QueryRescorerBuilder rescorer = mCursorMode ? null : buildRescorer(buildRescoreQuery(queryString));
         if (null != rescorer) {
-            requestBuilder.setRescorer(rescorer, getRescoreWindow());
+            sourceBuilder.addRescorer(rescorer.windowSize(getRescoreWindow()));
         }
 
         HighlightBuilder highlightBuilder = buildFieldHighlighter();
         if (null != highlightBuilder) {
-            requestBuilder.highlighter(highlightBuilder);
+            sourceBuilder.highlighter(highlightBuilder);
         }
 
-        return requestBuilder;
+        return new SearchRequest(getEffectiveIndices()).source(sourceBuilder);
     }
 
     /**
@@ -156,7 +916,10 @@ public class SimpleSearch extends SearchProvider
     {
         return new HighlightBuilder()
                 .field("title_lang." + getSearchLanguage(), getTitleLength(), 1)
-                .field("body_lang." + getSearchLanguage(), getSnippetLength(), 1)
+                .field(new HighlightBuilder.Field("body_lang." + getSearchLanguage())
+                        .fragmentSize(getSnippetLength())
+                        .numOfFragments(1)
+                        .noMatchSize(getSnippetLength()))
                 .encoder("html");
     }
 
@@ -167,7 +930,7 @@ public class SimpleSearch extends SearchProvider
      */
     protected int getNodeLimit()
     {
-        return mSimpleSearchConfig.getInteger("node_limit", 200000);
+        return getQueryTemplate().getNodeLimit();
     }
 
     /**
@@ -177,7 +940,17 @@ public class SimpleSearch extends SearchProvider
      */
     protected int getRescoreWindow()
     {
-        return mSimpleSearchConfig.getInteger("rescore_window", 400);
+        return getQueryTemplate().getRescoreWindow();
+    }
+
+    /**
+     * Get the pre-compiled static query parts for the current search language.
+     *
+     * @return compiled query template
+     */
+    protected SimpleQueryTemplate getQueryTemplate()
+    {
+        return SimpleQueryTemplate.getTemplate(getSearchLanguage());
     }
 
     /**
@@ -189,10 +962,9 @@ public class SimpleSearch extends SearchProvider
     protected QueryBuilder buildPreQuery(StringBuffer queryString) {
         BoolQueryBuilder mainQuery = QueryBuilders.boolQuery();
 
-        // parse query string filters
-        QueryBuilder queryStringFilter = parseQueryStringOperators(queryString);
-        if (null != queryStringFilter) {
-            mainQuery.filter(queryStringFilter);
+        // query string filters (parsed by prepareQuery())
+        if (null != mQueryFilter) {
+            mainQuery.filter(mQueryFilter);
         }
 
         mainQuery.filter(QueryBuilders.termQuery("lang", getSearchLanguage()));
@@ -206,10 +978,7 @@ public class SimpleSearch extends SearchProvider
                             SimpleQueryStringFlag.NOT,
                             SimpleQueryStringFlag.WHITESPACE);
 
-            final ConfigLoader.Config[] mainFields = mSimpleSearchConfig.getArray("main_fields");
-            for (final ConfigLoader.Config field : mainFields) {
-                searchQuery.field(replaceLocalePlaceholders(field.getString("name", "")));
-            }
+            searchQuery.fields(getQueryTemplate().getMatchFields());
             mainQuery.must(searchQuery);
         } else {
             MatchAllQueryBuilder searchQuery = QueryBuilders.matchAllQuery();
@@ -246,58 +1015,37 @@ public class SimpleSearch extends SearchProvider
      */
     protected QueryBuilder buildRescoreQuery(StringBuffer queryString)
     {
+        final SimpleQueryTemplate template = getQueryTemplate();
+
         // parse query string
         final SimpleQueryStringBuilder simpleQuery = QueryBuilders.simpleQueryStringQuery(queryString.toString());
-        simpleQuery.minimumShouldMatch("30%");
-
-        final ConfigLoader.Config[] mainFields = mSimpleSearchConfig.getArray("main_fields");
-
-        final List<Object[]> proximityFields = new ArrayList<>();
-        final List<String> fuzzyFields = new ArrayList<>();
-
-        for (final ConfigLoader.Config field : mainFields) {
-            simpleQuery.field(
-                    replaceLocalePlaceholders(field.getString("name", "")),
-                    field.getFloat("boost", 1.0f)).
-                    defaultOperator(Operator.AND).
-                    flags(SimpleQueryStringFlag.AND,
-                            SimpleQueryStringFlag.OR,
-                            SimpleQueryStringFlag.NOT,
-                            SimpleQueryStringFlag.PHRASE,
-                            SimpleQueryStringFlag.PREFIX,
-                            SimpleQueryStringFlag.WHITESPACE);
-
-            // add field to list of proximity-aware fields for later processing
-            if (field.getBoolean("proximity_matching", false)) {
-                proximityFields.add(new Object[]{
-                        replaceLocalePlaceholders(field.getString("name")),
-                        field.getInteger("proximity_slop", 1),
-                        field.getFloat("proximity_boost", 1.0f)
-                });
-            }
-
-            if (field.getBoolean("fuzzy_matching", false)) {
-                fuzzyFields.add(field.getString("name"));
-            }
-        }
+        simpleQuery.minimumShouldMatch("30%")
+                .fields(template.getRescoreFields())
+                .defaultOperator(Operator.AND)
+                .flags(SimpleQueryStringFlag.AND,
+                        SimpleQueryStringFlag.OR,
+                        SimpleQueryStringFlag.NOT,
+                        SimpleQueryStringFlag.PHRASE,
+                        SimpleQueryStringFlag.PREFIX,
+                        SimpleQueryStringFlag.WHITESPACE);
 
         // assemble main query
         BoolQueryBuilder mainQuery = QueryBuilders.boolQuery();
 
         // proximity matching
-        for (Object[] o : proximityFields) {
+        for (SimpleQueryTemplate.ProximityField f : template.getProximityFields()) {
             final MatchPhraseQueryBuilder proximityQuery = QueryBuilders.matchPhraseQuery(
-                    replaceLocalePlaceholders((String) o[0]),
+                    f.getName(),
                     queryString.toString()
             );
             proximityQuery
-                    .slop((Integer) o[1])
-                    .boost((Float) o[2] / 2.0f);
+                    .slop(f.getSlop())
+                    .boost(f.getBoost());
             mainQuery.should(proximityQuery);
         }
 
         // fuzzy fields
-        for (String f : fuzzyFields) {
+        for (String f : template.getFuzzyFields()) {
             final FuzzyQueryBuilder fuzzyQuery = QueryBuilders.fuzzyQuery(f, queryString.toString());
             fuzzyQuery.fuzziness(Fuzziness.AUTO);
             mainQuery.should(fuzzyQuery);
@@ -323,41 +1071,12 @@ public class SimpleSearch extends SearchProvider
      */
     protected void addFilters(BoolQueryBuilder query)
     {
-        final ConfigLoader.Config[] rangeFilters = mSimpleSearchConfig.getArray("range_filters");
-        for (final ConfigLoader.Config filterConfig : rangeFilters) {
-            final String fieldName = replaceLocalePlaceholders(filterConfig.getString("name", ""));
-
-            final RangeQueryBuilder rangeFilter = QueryBuilders.rangeQuery(fieldName);
-
-            if (null != filterConfig.getDouble("gt")) {
-                rangeFilter.gt(filterConfig.getDouble("gt"));
-            }
-            if (null != filterConfig.getDouble("gte")) {
-                rangeFilter.gte(filterConfig.getDouble("gte"));
-            }
-            if (null != filterConfig.getDouble("lt")) {
-                rangeFilter.lt(filterConfig.getDouble("lt"));
-            }
-            if (null != filterConfig.getDouble("lte")) {
-                rangeFilter.lte(filterConfig.getDouble("lte"));
-            }
-
-            QueryBuilder filterQuery = rangeFilter;
-            if (filterConfig.contains("include_unset") && filterConfig.getBoolean("include_unset")) {
-                BoolQueryBuilder mustNotExistQuery = QueryBuilders.boolQuery();
-                mustNotExistQuery.mustNot(QueryBuilders.existsQuery(fieldName));
-
-                BoolQueryBuilder wrapperQuery = QueryBuilders.boolQuery();
-                wrapperQuery.should(rangeFilter);
-                wrapperQuery.should(mustNotExistQuery);
-                filterQuery = wrapperQuery;
-            }
-
-            final Boolean negate = filterConfig.getBoolean("negate", false);
-            if (negate)
-                query.mustNot(filterQuery);
-            else
-                query.filter(filterQuery);
+        final SimpleQueryTemplate template = getQueryTemplate();
+        for (final QueryBuilder filterQuery : template.getRangeFilters()) {
+            query.filter(filterQuery);
+        }
+        for (final QueryBuilder filterQuery : template.getNegatedRangeFilters()) {
+            query.mustNot(filterQuery);
         }
     }
 
@@ -370,15 +1089,7 @@ public class SimpleSearch extends SearchProvider
     protected void addBoosts(BoolQueryBuilder query, boolean match)
     {
         // field value boosts
-        final ConfigLoader.Config[] boosts = mSimpleSearchConfig.getArray("boosts");
-        for (ConfigLoader.Config c: boosts) {
-            if (match && !c.getBoolean("match")) {
-                continue;
-            }
-            RegexpQueryBuilder regExpQuery = QueryBuilders.regexpQuery(
-                    replaceLocalePlaceholders(c.getString("name")),
-                    replaceLocalePlaceholders(c.getString("value")));
-            regExpQuery.boost(c.getFloat("match_boost", 1.0f));
+        for (QueryBuilder regExpQuery : getQueryTemplate().getBoosts(match)) {
             query.should(regExpQuery);
         }
     }
@@ -391,13 +1102,7 @@ public class SimpleSearch extends SearchProvider
      */
     protected QueryBuilder decorateFieldValueFactors(QueryBuilder query)
     {
-        ConfigLoader.Config[] funcScoreCfgs = mSimpleSearchConfig.getArray("field_value_factors");
-        for (ConfigLoader.Config c : funcScoreCfgs) {
-            FieldValueFactorFunctionBuilder valueFactor = new FieldValueFactorFunctionBuilder(c.getString("name"));
-            valueFactor
-                    .factor(c.getFloat("factor", 1.0f))
-                    .modifier(FieldValueFactorFunction.Modifier.fromString(c.getString("modifier", "")))
-                    .missing(c.getFloat("missing", 1.0f));
+        for (FieldValueFactorFunctionBuilder valueFactor : getQueryTemplate().getFieldValueFactors()) {
             query = QueryBuilders.functionScoreQuery(query, valueFactor);
         }
 
@@ -412,27 +1117,10 @@ public class SimpleSearch extends SearchProvider
      */
     protected QueryBuilder decorateNegativeBoost(QueryBuilder query)
     {
-        final ConfigLoader.Config penalties = mSimpleSearchConfig.get("penalties");
-        final ConfigLoader.Config[] penaltyFields = penalties.getArray("fields");
-        if (penaltyFields.length > 0) {
-            BoolQueryBuilder penaltyQuery = QueryBuilders.boolQuery();
-            for (ConfigLoader.Config c: penaltyFields) {
-                QueryBuilder penaltyInnerQuery;
-                if (c.contains("regexp")) {
-                    penaltyInnerQuery = QueryBuilders.regexpQuery(
-                            replaceLocalePlaceholders(c.getString("name")),
-                            replaceLocalePlaceholders(c.getString("regexp")));
-                } else {
-                    penaltyInnerQuery = QueryBuilders.matchQuery(
-                            replaceLocalePlaceholders(c.getString("name")),
-                            replaceLocalePlaceholders(c.getString("value")));
-                }
-                penaltyInnerQuery.boost(c.getFloat("boost", 2.0f));
-                penaltyQuery.should(penaltyInnerQuery);
-            }
-
-            BoostingQueryBuilder boostingQuery = QueryBuilders.boostingQuery(query, penaltyQuery);
-            boostingQuery.negativeBoost(penalties.getFloat("penalty_factor", 0.2f));
+        final SimpleQueryTemplate template = getQueryTemplate();
+        if (null != template.getPenaltyQuery()) {
+            BoostingQueryBuilder boostingQuery = QueryBuilders.boostingQuery(query, template.getPenaltyQuery());
+            boostingQuery.negativeBoost(template.getPenaltyFactor());
             query = boostingQuery;
         }
 
@@ -450,19 +1138,19 @@ public class SimpleSearch extends SearchProvider
     {
         // replace AND and OR with + and |
         queryString.replace(0, queryString.length(),
-                queryString.toString().replaceAll("(?!\\B\"[^\"]*) AND (?![^\"]*\"\\B)", " +"));
+                AND_PATTERN.matcher(queryString).replaceAll(" +"));
         queryString.replace(0, queryString.length(),
-                queryString.toString().replaceAll("(?!\\B\"[^\"]*) OR (?![^\"]*\"\\B)", " | "));
+                OR_PATTERN.matcher(queryString).replaceAll(" | "));
 
-        ConfigLoader.Config[] filterConf = mSimpleSearchConfig.getArray("query_filters");
-        if (filterConf.length == 0) {
+        List<SimpleQueryTemplate.QueryFilter> filterConf = getQueryTemplate().getQueryFilters();
+        if (filterConf.isEmpty()) {
             return null;
         }
 
         BoolQueryBuilder filterQuery = QueryBuilders.boolQuery();
-        for (ConfigLoader.Config c: filterConf) {
-            String filterKey = c.getString("keyword");
-            String filterField = c.getString("field");
+        for (SimpleQueryTemplate.QueryFilter c: filterConf) {
+            String filterKey = c.getKeyword();
+            String filterField = c.getField();
 
             int pos = queryString.indexOf(filterKey + ":");
             if (-1 == pos) {
@@ -0,0 +1,400 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.util;
+
+import de.webis.chatnoir2.webclient.resources.ConfigLoader;
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.*;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Elasticsearch client which talks to the cluster over HTTP using a pooled
+ * asynchronous connection manager.
+ *
+ * Asynchronous methods notify their listeners on an I/O reactor thread, so listeners
+ * must not block. Synchronous methods wrap I/O errors in an {@link UncheckedIOException}.
+ */
+public class ClusterClient implements Closeable
+{
+    /**
+     * Default Elasticsearch HTTP port.
+     */
+    public static final int DEFAULT_PORT = 9200;
+
+    private final RestHighLevelClient mClient;
+
+    /**
+     * Number of long-running operations which hold on to this client (see {@link #retain()}).
+     */
+    private final AtomicInteger mRetainCount = new AtomicInteger();
+
+    /**
+     * Whether the client is to be closed once it is no longer retained.
+     */
+    private volatile boolean mCloseRequested = false;
+
+    /**
+     * Create a new client from the <tt>cluster</tt> section of the given configuration.
+     *
+     * @param conf application configuration
+     */
+    public ClusterClient(ConfigLoader.Config conf)
+    {
+        final String[] hosts = conf.getStringArray("cluster.hosts");
+        final int port = conf.getInteger("cluster.port", DEFAULT_PORT);
+        final String scheme = conf.getString("cluster.scheme", "http");
+        final HttpHost[] httpHosts = new HttpHost[hosts.length];
+        for (int i = 0; i < hosts.length; ++i) {
+            httpHosts[i] = new HttpHost(hosts[i], port, scheme);
+        }
+
+        final ConfigLoader.Config poolConf = conf.get("cluster.connection_pool");
+        final int maxConnPerHost = poolConf.getInteger("max_connections_per_host", 32);
+        final int maxConn = poolConf.getInteger("max_connections", 128);
+        final long keepAlive = poolConf.getLong("keep_alive", 60000L);
+        final int connectTimeout = poolConf.getInteger("connect_timeout", 5000);
+        final int socketTimeout = poolConf.getInteger("socket_timeout", 20000);
+        final int ioThreads = poolConf.getInteger("io_threads", 0);
+
+        final RestClientBuilder builder = RestClient.builder(httpHosts)
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout))
+                .setHttpClientConfigCallback(httpClient -> {
+                    httpClient
+                            .setMaxConnPerRoute(maxConnPerHost)
+                            .setMaxConnTotal(maxConn)
+                            // Elasticsearch does not send keep-alive headers, so idle connections
+                            // would otherwise be kept open indefinitely
+                            .setKeepAliveStrategy((response, context) -> keepAlive);
+                    if (ioThreads > 0) {
+                        httpClient.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(ioThreads)
+                                .build());
+                    }
+                    return httpClient;
+                });
+
+        mClient = new RestHighLevelClient(builder);
+    }
+
+    /**
+     * Run a search request asynchronously.
+     *
+     * @param request search request
+     * @param listener response listener
+     */
+    public void search(SearchRequest request, ActionListener<SearchResponse> listener)
+    {
+        mClient.searchAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    /**
+     * Run a search request.
+     *
+     * @param request search request
+     * @return search response
+     */
+    public SearchResponse search(SearchRequest request)
+    {
+        try {
+            return mClient.search(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieve the next batch of a scroll search.
+     *
+     * @param request scroll request
+     * @return search response
+     */
+    public SearchResponse scroll(SearchScrollRequest request)
+    {
+        try {
+            return mClient.scroll(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Clear a scroll context in the background. Failures are logged and otherwise ignored.
+     *
+     * @param scrollId scroll ID
+     */
+    public void clearScroll(String scrollId)
+    {
+        final ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(scrollId);
+        mClient.clearScrollAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(
+                response -> {},
+                e -> Configured.getSysLogger().warn("Failed to clear scroll context", e)));
+    }
+
+    /**
+     * Run a multi search request asynchronously.
+     *
+     * @param request multi search request
+     * @param listener response listener
+     */
+    public void msearch(MultiSearchRequest request, ActionListener<MultiSearchResponse> listener)
+    {
+        mClient.msearchAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    /**
+     * Run a multi search request.
+     *
+     * @param request multi search request
+     * @return multi search response
+     */
+    public MultiSearchResponse msearch(MultiSearchRequest request)
+    {
+        try {
+            return mClient.msearch(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieve a document asynchronously.
+     *
+     * @param request get request
+     * @param listener response listener
+     */
+    public void get(GetRequest request, ActionListener<GetResponse> listener)
+    {
+        mClient.getAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    /**
+     * Retrieve a document.
+     *
+     * @param request get request
+     * @return get response
+     */
+    public GetResponse get(GetRequest request)
+    {
+        try {
+            return mClient.get(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retrieve multiple documents asynchronously.
+     *
+     * @param request multi get request
+     * @param listener response listener
+     */
+    public void multiGet(MultiGetRequest request, ActionListener<MultiGetResponse> listener)
+    {
+        mClient.mgetAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
+    /**
+     * Retrieve multiple documents.
+     *
+     * @param request multi get request
+     * @return multi get response
+     */
+    public MultiGetResponse multiGet(MultiGetRequest request)
+    {
+        try {
+            return mClient.mget(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Index a document.
+     *
+     * @param request index request
+     * @return index response
+     */
+    public IndexResponse index(IndexRequest request)
+    {
+        try {
+            return mClient.index(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Update a document.
+     *
+     * @param request update request
+     * @return update response
+     */
+    public UpdateResponse update(UpdateRequest request)
+    {
+        try {
+            return mClient.update(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Check whether an index exists.
+     *
+     * @param index index name
+     * @return true if index exists
+     */
+    public boolean indexExists(String index)
+    {
+        try {
+            return mClient.indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create an index.
+     *
+     * @param index index name
+     * @param source JSON index settings and (typed) mappings
+     */
+    @SuppressWarnings("deprecation")
+    public void createIndex(String index, String source)
+    {
+        try {
+            // the typeless CreateIndexRequest would map documents to the _doc type, but the API key
+            // and quota indices use their own mapping types, which existing indices already have
+            mClient.indices().create(new CreateIndexRequest(index).source(source, XContentType.JSON),
+                    RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Create an index from a mapping file on the class path unless it exists already.
+     *
+     * @param index index name
+     * @param mappingFile class path resource containing the JSON index settings and (typed) mappings
+     * @return true if the index was created
+     */
+    public boolean ensureIndexCreated(String index, String mappingFile)
+    {
+        if (indexExists(index)) {
+            return false;
+        }
+
+        Configured.getSysLogger().info(String.format("Index '%s' does not exist, creating it.", index));
+        try (InputStream in = ClusterClient.class.getClassLoader().getResourceAsStream(mappingFile)) {
+            if (null == in) {
+                throw new IOException(String.format("Mapping file '%s' not found", mappingFile));
+            }
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            createIndex(index, reader.lines().collect(Collectors.joining("\n", "", "\n")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Keep this client open for a long-running operation, such as a scroll, even if it
+     * is replaced and closed with {@link #closeWhenReleased()} in the meantime.
+     * Every call must be paired with a call to {@link #release()}.
+     *
+     * @return this client
+     */
+    public ClusterClient retain()
+    {
+        mRetainCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Release a client previously retained with {@link #retain()}.
+     */
+    public void release()
+    {
+        if (0 == mRetainCount.decrementAndGet() && mCloseRequested) {
+            close();
+        }
+    }
+
+    /**
+     * Close this client as soon as no operation retains it anymore.
+     */
+    public void closeWhenReleased()
+    {
+        mCloseRequested = true;
+        if (0 == mRetainCount.get()) {
+            close();
+        }
+    }
+
+    /**
+     * Close all pooled connections. The client cannot be used anymore afterwards.
+     */
+    @Override
+    public void close()
+    {
+        try {
+            mClient.close();
+        } catch (IOException e) {
+            Configured.getSysLogger().error("Failed to close Elasticsearch client", e);
+        }
+    }
+}
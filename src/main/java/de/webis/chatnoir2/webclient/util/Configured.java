@@ -27,13 +27,11 @@ package de.webis.chatnoir2.webclient.util;
 
 import de.webis.chatnoir2.webclient.resources.ConfigLoader;
 import org.apache.log4j.Logger;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.transport.TransportAddress;
-import org.elasticsearch.transport.client.PreBuiltTransportClient;
 
 import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base interface for classes which depend on the application configuration
@@ -41,64 +39,126 @@ import java.net.InetSocketAddress;
  */
 public class Configured
 {
-    private static ConfigLoader.Config sConf = null;
-    private static TransportClient sClient = null;
+    private static volatile ConfigLoader.Config sConf = null;
+    private static volatile ClusterClient sClient = null;
     private static final Object sClientMutex = new Object();
 
+    /**
+     * Time in milliseconds after which replaced Elasticsearch clients are closed.
+     */
+    private static final long CLIENT_CLOSE_DELAY = 120000;
+
+    /**
+     * Executor for closing replaced Elasticsearch clients.
+     */
+    private static final ScheduledExecutorService sClientCloseExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Configured-client-close");
+        t.setDaemon(true);
+        return t;
+    });
+
     protected Configured()
     {
     }
 
     /**
      * Get system configuration.
+     * The returned configuration is an immutable snapshot, which is replaced as a whole
+     * when the configuration is reloaded with {@link #reloadConf()}.
      *
      * @return loaded configuration
      */
-    public static synchronized ConfigLoader.Config getConf()
+    public static ConfigLoader.Config getConf()
     {
-        if (null == sConf) {
-            try {
-                sConf = ConfigLoader.getInstance().getConfig();
-            } catch (IOException | ConfigLoader.ParseException e) {
-                e.printStackTrace();
-                sConf = new ConfigLoader.Config();
+        ConfigLoader.Config conf = sConf;
+        if (null != conf) {
+            return conf;
+        }
+
+        synchronized (Configured.class) {
+            if (null == sConf) {
+                try {
+                    sConf = ConfigLoader.getInstance().getConfig();
+                } catch (IOException | ConfigLoader.ParseException e) {
+                    e.printStackTrace();
+                    sConf = new ConfigLoader.Config();
+                }
             }
+            return sConf;
         }
+    }
+
+    /**
+     * Reload system configuration from disk and atomically replace the current configuration snapshot.
+     * If the configuration cannot be loaded, the current snapshot remains in place.
+     *
+     * @return the new configuration
+     * @throws IOException if the configuration file cannot be read
+     * @throws ConfigLoader.ParseException if the configuration file cannot be parsed
+     */
+    public static ConfigLoader.Config reloadConf() throws IOException, ConfigLoader.ParseException
+    {
+        return reloadConf(null);
+    }
 
+    /**
+     * Reload system configuration from disk and atomically replace the current configuration snapshot
+     * if the new configuration passes validation. Otherwise, the current snapshot remains in place.
+     *
+     * @param validator validator for the new configuration (may be null)
+     * @return the new configuration
+     * @throws IOException if the configuration file cannot be read
+     * @throws ConfigLoader.ParseException if the configuration file cannot be parsed or is invalid
+     */
+    public static synchronized ConfigLoader.Config reloadConf(ConfigLoader.Validator validator)
+            throws IOException, ConfigLoader.ParseException
+    {
+        sConf = ConfigLoader.getInstance().reloadConfig(ConfigLoader.DEFAULT_FILE_NAME, validator);
         return sConf;
     }
 
     /**
-     * Get a connected Elasticsearch {@link TransportClient} instance.
+     * Get the shared Elasticsearch {@link ClusterClient} instance.
      *
-     * @return configured TransportClient
+     * @return configured ClusterClient
      */
-    public static TransportClient getClient()
+    public static ClusterClient getClient()
     {
+        ClusterClient client = sClient;
+        if (null != client) {
+            return client;
+        }
+
         synchronized (sClientMutex) {
             if (null == sClient) {
-                final ConfigLoader.Config cfg = getConf();
-                final String clusterName = cfg.getString("cluster.cluster_name", "");
-                final String[] hosts = cfg.getStringArray("cluster.hosts");
-                final int port = cfg.getInteger("cluster.port", 9300);
-
-                final Settings settings = Settings.builder()
-                        .put("cluster.name", clusterName)
-                        .put("client.transport.sniff", cfg.getBoolean("cluster.sniff", true))
-                        .build();
-
-                sClient = new PreBuiltTransportClient(settings);
-                for (String host : hosts) {
-                    sClient.addTransportAddress(new TransportAddress(new InetSocketAddress(host, port)));
-                }
+                sClient = new ClusterClient(getConf());
             }
             return sClient;
         }
     }
 
     /**
-     * Cleanly shut down and reset the Elasticsearch {@link TransportClient}.
-     * The next call to {@link #getClient()} will create a new transport client.
+     * Replace the Elasticsearch {@link ClusterClient} with a new one using the current configuration.
+     * The old client is closed after a grace period, so requests that are still using it can finish.
+     * Operations which retain the old client with {@link ClusterClient#retain()} keep it open beyond that.
+     */
+    public static void reconnectClient()
+    {
+        final ClusterClient oldClient;
+        synchronized (sClientMutex) {
+            oldClient = sClient;
+            sClient = null;
+        }
+        getClient();
+
+        if (null != oldClient) {
+            sClientCloseExecutor.schedule(oldClient::closeWhenReleased, CLIENT_CLOSE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Cleanly shut down and reset the Elasticsearch {@link ClusterClient}.
+     * The next call to {@link #getClient()} will create a new client.
      */
     public static void shutdownClient()
     {
@@ -0,0 +1,120 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background thread which invokes a callback whenever a single file is created or modified.
+ * Bursts of change events (e.g. from editors writing a file in several steps or replacing it)
+ * are coalesced into a single callback invocation.
+ */
+public class FileWatcher
+{
+    /**
+     * Time in milliseconds to wait for further change events before invoking the callback.
+     */
+    private static final long SETTLE_TIME = 500;
+
+    private final Path mFile;
+    private final Runnable mCallback;
+    private Thread mThread = null;
+
+    /**
+     * @param file file to watch
+     * @param callback callback to invoke on the watcher thread when the file has changed
+     */
+    public FileWatcher(Path file, Runnable callback)
+    {
+        mFile = file.toAbsolutePath();
+        mCallback = callback;
+    }
+
+    /**
+     * Start watching the file. Calling this method more than once has no effect.
+     *
+     * @param threadName name of the watcher thread
+     * @throws IOException if the parent directory of the file cannot be watched
+     */
+    public synchronized void start(String threadName) throws IOException
+    {
+        if (null != mThread) {
+            return;
+        }
+
+        // watch the parent directory, so replacing the file is detected as well
+        final Path dir = mFile.getParent();
+        final WatchService watchService = dir.getFileSystem().newWatchService();
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        mThread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    WatchKey key = watchService.take();
+                    boolean changed = false;
+                    while (null != key) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            changed |= mFile.getFileName().equals(event.context());
+                        }
+                        if (!key.reset()) {
+                            return;
+                        }
+                        key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+                    }
+
+                    if (changed) {
+                        try {
+                            mCallback.run();
+                        } catch (RuntimeException e) {
+                            Configured.getSysLogger().error(String.format("Error handling change of %s", mFile), e);
+                        }
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            } finally {
+                try {
+                    watchService.close();
+                } catch (IOException ignored) {}
+            }
+        }, threadName);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop watching the file.
+     */
+    public synchronized void stop()
+    {
+        if (null != mThread) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+}
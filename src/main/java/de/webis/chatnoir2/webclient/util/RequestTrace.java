@@ -0,0 +1,240 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.util;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import javax.servlet.ServletRequest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lightweight trace of the time spent in individual processing phases of a single request.
+ *
+ * A trace is started for each request by {@link de.webis.chatnoir2.webclient.filters.RequestTraceFilter}
+ * and can be retrieved from the request with {@link #get(ServletRequest)}. Components without access
+ * to the request (such as search providers) are handed the trace explicitly. Phase timings recorded
+ * more than once per request are summed up. Once a request has finished, its phase timings are
+ * aggregated into global per-phase latency histograms.
+ */
+public class RequestTrace
+{
+    /**
+     * Phase name of the total request time.
+     */
+    public static final String PHASE_TOTAL = "total";
+
+    /**
+     * Endpoint name for requests which are not handled by a known endpoint (e.g. 404s).
+     */
+    public static final String ENDPOINT_OTHER = "other";
+
+    /**
+     * Trace which discards all recorded timings.
+     */
+    public static final RequestTrace NONE = new RequestTrace(false);
+
+    private static final String REQUEST_ATTRIBUTE = RequestTrace.class.getName();
+
+    /**
+     * Number of significant decimal digits for histogram values.
+     */
+    private static final int HISTOGRAM_PRECISION = 2;
+
+    /**
+     * Global latency histograms in microseconds by phase name.
+     */
+    private static final Map<String, Histogram> sHistograms = new ConcurrentHashMap<>();
+
+    /**
+     * Global total request latency histograms in microseconds by endpoint.
+     */
+    private static final Map<String, Histogram> sEndpointHistograms = new ConcurrentHashMap<>();
+
+    private final boolean mEnabled;
+    private final long mStartTime = System.nanoTime();
+    private final Map<String, Long> mPhases = new LinkedHashMap<>();
+    private final AtomicBoolean mFinished = new AtomicBoolean(false);
+    private volatile String mEndpoint = null;
+
+    private RequestTrace(boolean enabled)
+    {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Start a new trace for the given request.
+     *
+     * @param request HTTP request
+     * @return started trace
+     */
+    public static RequestTrace start(ServletRequest request)
+    {
+        final RequestTrace trace = new RequestTrace(true);
+        request.setAttribute(REQUEST_ATTRIBUTE, trace);
+        return trace;
+    }
+
+    /**
+     * Get the trace of a request.
+     *
+     * @param request HTTP request
+     * @return trace of this request or {@link #NONE} if no trace was started
+     */
+    public static RequestTrace get(ServletRequest request)
+    {
+        final Object trace = request.getAttribute(REQUEST_ATTRIBUTE);
+        return trace instanceof RequestTrace ? (RequestTrace) trace : NONE;
+    }
+
+    /**
+     * Record time spent in a phase.
+     *
+     * @param phase phase name
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void record(String phase, long nanos)
+    {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (mPhases) {
+            mPhases.merge(phase, nanos, Long::sum);
+        }
+    }
+
+    /**
+     * Record the time elapsed since <tt>startTime</tt> for a phase.
+     *
+     * @param phase phase name
+     * @param startTime start time as returned by {@link System#nanoTime()}
+     * @return current time as returned by {@link System#nanoTime()}, so it can be used as start of the next phase
+     */
+    public long recordSince(String phase, long startTime)
+    {
+        final long now = System.nanoTime();
+        record(phase, now - startTime);
+        return now;
+    }
+
+    /**
+     * Set the endpoint which handles this request. Endpoint names are used as histogram keys,
+     * so they must be taken from a small fixed set (e.g. servlet routes), never from the request path
+     * or other user input. Use {@link #ENDPOINT_OTHER} for requests without a known endpoint.
+     *
+     * @param endpoint endpoint name
+     */
+    public void setEndpoint(String endpoint)
+    {
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * @return endpoint which handles this request or null if unknown
+     */
+    public String getEndpoint()
+    {
+        return mEndpoint;
+    }
+
+    /**
+     * @return time elapsed since the start of this trace in nanoseconds
+     */
+    public long getElapsedTime()
+    {
+        return System.nanoTime() - mStartTime;
+    }
+
+    /**
+     * @return recorded phase timings in nanoseconds in the order in which the phases were first recorded
+     */
+    public Map<String, Long> getPhases()
+    {
+        synchronized (mPhases) {
+            return new LinkedHashMap<>(mPhases);
+        }
+    }
+
+    /**
+     * Finish this trace and add its phase timings and the total request time to the global histograms.
+     * Calling this method more than once has no effect.
+     */
+    public void finish()
+    {
+        if (!mEnabled || !mFinished.compareAndSet(false, true)) {
+            return;
+        }
+        final long elapsedTime = getElapsedTime();
+        recordHistogramValue(sHistograms, PHASE_TOTAL, elapsedTime);
+        for (Map.Entry<String, Long> phase : getPhases().entrySet()) {
+            recordHistogramValue(sHistograms, phase.getKey(), phase.getValue());
+        }
+        if (null != mEndpoint) {
+            recordHistogramValue(sEndpointHistograms, mEndpoint, elapsedTime);
+        }
+    }
+
+    /**
+     * Get snapshots of the global per-phase latency histograms.
+     * Histogram values are in microseconds.
+     *
+     * @return histogram copies by phase name, sorted by phase name
+     */
+    public static Map<String, Histogram> getHistograms()
+    {
+        return copyHistograms(sHistograms);
+    }
+
+    /**
+     * Get snapshots of the global total request latency histograms per endpoint.
+     * Histogram values are in microseconds.
+     *
+     * @return histogram copies by endpoint name, sorted by endpoint name
+     */
+    public static Map<String, Histogram> getEndpointHistograms()
+    {
+        return copyHistograms(sEndpointHistograms);
+    }
+
+    private static Map<String, Histogram> copyHistograms(Map<String, Histogram> source)
+    {
+        final Map<String, Histogram> histograms = new TreeMap<>();
+        source.forEach((key, histogram) -> histograms.put(key, histogram.copy()));
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    private static void recordHistogramValue(Map<String, Histogram> histograms, String key, long nanos)
+    {
+        histograms.computeIfAbsent(key, k -> new ConcurrentHistogram(HISTOGRAM_PRECISION))
+                .recordValue(Math.max(0, nanos / 1000));
+    }
+}
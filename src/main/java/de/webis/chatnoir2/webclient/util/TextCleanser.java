@@ -25,6 +25,8 @@
 
 package de.webis.chatnoir2.webclient.util;
 
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * Text cleansing tools.
@@ -91,6 +93,44 @@ public class TextCleanser
             "Ã", "ÃẄ", "Å¶", "ÅṖ", "Åẁ", "Ãṡ", "ÅẄ", "Åẅ", "ÅẄ", "Åẅ", "Ã", "Ãẅ", "Âṁ"
     };
 
+    /**
+     * Trie over all broken multi-byte sequences, mapping each to its repaired character.
+     */
+    private static final TrieNode ENCODING_ERRORS = new TrieNode();
+
+    /**
+     * Length of the longest broken sequence.
+     */
+    private static final int MAX_SEQUENCE_LENGTH;
+
+    private static final Pattern UNCLOSED_BRACKETS_PATTERN =
+            Pattern.compile("(\\(|\\[|<).{0,10}(?!(?:\\)|]|>))\\s*$");
+    private static final Pattern UNCLOSED_BRACKETS_HTML_PATTERN =
+            Pattern.compile("(\\(|\\[|&lt;).{0,10}(?!(?:\\)|]|&gt;))\\s*$");
+    private static final Pattern REPEATED_WORDS_PATTERN =
+            Pattern.compile("([^\\s]+?) \\1{2,}");
+    private static final Pattern REPEATED_WORDS_HTML_PATTERN =
+            Pattern.compile("((?:<(\\w+)>)?([^\\s])+?(?:</\\2>)?)(\\s+\\1){2,}");
+
+    /**
+     * Maximum capacity of the per-thread scan buffer to retain between invocations.
+     */
+    private static final int MAX_RETAINED_BUFFER_CAPACITY = 1 << 16;
+    private static final ThreadLocal<StringBuilder> sScanBuffer = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    static {
+        // add sequences in order of precedence, the first mapping for a sequence wins
+        int maxLength = 0;
+        for (int i = 0; i < WESTERN_UNICODE_CHARS.length; ++i) {
+            maxLength = Math.max(maxLength, Math.max(BROKEN_ISO_8859_1_CHARS[i].length(),
+                    Math.max(BROKEN_ISO_8859_15_CHARS[i].length(), BROKEN_ISO_8859_14_CHARS[i].length())));
+            ENCODING_ERRORS.putIfAbsent(BROKEN_ISO_8859_1_CHARS[i], WESTERN_UNICODE_CHARS[i]);
+            ENCODING_ERRORS.putIfAbsent(BROKEN_ISO_8859_15_CHARS[i], WESTERN_UNICODE_CHARS[i]);
+            ENCODING_ERRORS.putIfAbsent(BROKEN_ISO_8859_14_CHARS[i], WESTERN_UNICODE_CHARS[i]);
+        }
+        MAX_SEQUENCE_LENGTH = maxLength;
+    }
+
     private boolean mIsHtml;
     private String mString;
 
@@ -118,8 +158,7 @@ public class TextCleanser
     {
         // order is important!
         return new TextCleanser(str, html)
-                .encodingErrors()
-                .doubleHtmlEscape()
+                .scan(true, true, false)
                 .unclosedBrackets()
                 .repeatedWords()
                 .whitespace()
@@ -152,21 +191,7 @@ public class TextCleanser
      */
     public TextCleanser encodingErrors()
     {
-        // repair western unicode characters which were interpreted as ISO 8859-1 or ISO 8859-15
-        for (int i = 0; i < WESTERN_UNICODE_CHARS.length; ++i) {
-            mString = mString.replace(BROKEN_ISO_8859_1_CHARS[i], WESTERN_UNICODE_CHARS[i]);
-            if (!BROKEN_ISO_8859_1_CHARS[i].equals(BROKEN_ISO_8859_15_CHARS[i])) {
-                mString = mString.replace(BROKEN_ISO_8859_15_CHARS[i], WESTERN_UNICODE_CHARS[i]);
-            }
-            if (!BROKEN_ISO_8859_1_CHARS[i].equals(BROKEN_ISO_8859_14_CHARS[i])) {
-                mString = mString.replace(BROKEN_ISO_8859_14_CHARS[i], WESTERN_UNICODE_CHARS[i]);
-            }
-        }
-
-        // strip unicode replacement characters
-        mString =  mString.replace("\ufffd", "");
-
-        return this;
+        return scan(true, false, false);
     }
 
     /**
@@ -174,8 +199,7 @@ public class TextCleanser
      */
     public TextCleanser doubleHtmlEscape()
     {
-        mString = mString.replaceAll("&amp;(\\w{1,8});", "&$1;");
-        return this;
+        return scan(false, true, false);
     }
 
     /**
@@ -185,9 +209,9 @@ public class TextCleanser
     public TextCleanser unclosedBrackets()
     {
         if (mIsHtml) {
-            mString = mString.replaceFirst("(\\(|\\[|&lt;).{0,10}(?!(?:\\)|]|&gt;))\\s*$", "").trim();
+            mString = UNCLOSED_BRACKETS_HTML_PATTERN.matcher(mString).replaceFirst("").trim();
         } else {
-            mString = mString.replaceFirst("(\\(|\\[|<).{0,10}(?!(?:\\)|]|>))\\s*$", "").trim();
+            mString = UNCLOSED_BRACKETS_PATTERN.matcher(mString).replaceFirst("").trim();
         }
         return this;
     }
@@ -197,13 +221,7 @@ public class TextCleanser
      */
     public TextCleanser whitespace()
     {
-        if (!mIsHtml) {
-            mString = mString.replaceAll("[ \\s]+", " ");
-        } else {
-            mString = mString.replaceAll("(?:[ \\s]|&nbsp;)+", " ");
-        }
-
-        return this;
+        return scan(false, false, true);
     }
 
     /**
@@ -235,11 +253,248 @@ public class TextCleanser
     public TextCleanser repeatedWords()
     {
         if (!mIsHtml) {
-            mString = mString.replaceAll("([^\\s]+?) \\1{2,}", "").trim();
+            mString = REPEATED_WORDS_PATTERN.matcher(mString).replaceAll("").trim();
         } else {
-            mString = mString.replaceAll("((?:<(\\w+)>)?([^\\s])+?(?:</\\2>)?)(\\s+\\1){2,}", "$1 $1").trim();
+            mString = REPEATED_WORDS_HTML_PATTERN.matcher(mString).replaceAll("$1 $1").trim();
         }
 
         return this;
     }
+
+    /**
+     * Perform the selected character-level cleansing operations in a single pass over the string
+     * without creating intermediate copies of it. Encoding errors are repaired before double
+     * HTML escapes are corrected and white space is collapsed last. Repaired characters are matched again together with their neighbours, so text
+     * with multiple layers of broken encoding is repaired completely.
+     *
+     * @param encoding repair encoding errors (see {@link #encodingErrors()})
+     * @param escapes correct double HTML escaping (see {@link #doubleHtmlEscape()})
+     * @param whitespace remove consecutive runs of white space (see {@link #whitespace()})
+     */
+    private TextCleanser scan(boolean encoding, boolean escapes, boolean whitespace)
+    {
+        final String str = mString;
+        final int length = str.length();
+        final StringBuilder sb = sScanBuffer.get();
+        sb.setLength(0);
+
+        boolean changed = false;
+        // output position from which on a double-escaped entity may start
+        int escapeStart = 0;
+        // output position of the last repaired character
+        int repairedPos = -MAX_SEQUENCE_LENGTH;
+
+        int i = 0;
+        while (i < length) {
+            final char c = str.charAt(i);
+
+            if (encoding) {
+                // strip unicode replacement characters
+                if (c == '\ufffd') {
+                    changed = true;
+                    ++i;
+                    continue;
+                }
+
+                // repair western unicode characters which were interpreted as ISO 8859-1, -14 or -15
+                TrieNode match = matchEncodingError(c, str, i + 1);
+                if (null != match) {
+                    sb.append(match.mValue);
+                    repairedPos = repairSuffix(sb, sb.length() - 1);
+                    escapeStart = Math.min(escapeStart, sb.length());
+                    changed = true;
+                    i += match.mDepth;
+                    continue;
+                }
+            }
+
+            if (whitespace && isWhitespace(c)) {
+                changed |= appendWhitespace(sb) || c != ' ';
+                ++i;
+                continue;
+            }
+
+            sb.append(c);
+            ++i;
+
+            if (encoding && repairedPos > sb.length() - MAX_SEQUENCE_LENGTH) {
+                repairedPos = repairSuffix(sb, repairedPos);
+                escapeStart = Math.min(escapeStart, sb.length());
+            }
+
+            if (c != ';') {
+                continue;
+            }
+
+            // replace &amp;entity; with &entity;
+            if (escapes) {
+                final int end = sb.length() - 1;
+                int start = end;
+                while (start > 0 && end - start <= 8 && isWordChar(sb.charAt(start - 1))) {
+                    --start;
+                }
+                final int wordLength = end - start;
+                if (wordLength >= 1 && wordLength <= 8 && start - 5 >= escapeStart && endsWith(sb, start, "&amp;")) {
+                    sb.delete(start - 4, start);
+                    escapeStart = sb.length();
+                    changed = true;
+                }
+            }
+
+            // treat &nbsp; as white space in HTML
+            if (whitespace && mIsHtml && endsWith(sb, sb.length(), "&nbsp;")) {
+                sb.setLength(sb.length() - 6);
+                appendWhitespace(sb);
+                escapeStart = Math.min(escapeStart, sb.length());
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            mString = sb.toString();
+        }
+        if (sb.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+            sb.setLength(0);
+            sb.trimToSize();
+        }
+
+        return this;
+    }
+
+    /**
+     * Find the longest broken sequence consisting of the given character and the characters following it.
+     *
+     * @param first first character of the sequence
+     * @param str string containing the remaining characters
+     * @param offset offset of the remaining characters in <tt>str</tt>
+     * @return trie node of the matched sequence or null if there is none
+     */
+    private static TrieNode matchEncodingError(char first, String str, int offset)
+    {
+        TrieNode match = null;
+        TrieNode node = ENCODING_ERRORS.get(first);
+        for (int i = offset; null != node; ++i) {
+            if (null != node.mValue) {
+                match = node;
+            }
+            node = i < str.length() ? node.get(str.charAt(i)) : null;
+        }
+        return match;
+    }
+
+    /**
+     * Repair broken sequences at the end of the buffer which contain a previously repaired character.
+     *
+     * @param sb output buffer
+     * @param repairedPos position of the last repaired character in the buffer
+     * @return new position of the last repaired character
+     */
+    private static int repairSuffix(StringBuilder sb, int repairedPos)
+    {
+        int start = Math.max(0, sb.length() - MAX_SEQUENCE_LENGTH);
+        while (start <= repairedPos && start < sb.length() - 1) {
+            TrieNode node = ENCODING_ERRORS;
+            for (int i = start; i < sb.length() && null != node; ++i) {
+                node = node.get(sb.charAt(i));
+            }
+            if (null == node || null == node.mValue) {
+                ++start;
+                continue;
+            }
+
+            sb.setLength(start);
+            sb.append(node.mValue);
+            repairedPos = sb.length() - 1;
+            start = Math.max(0, sb.length() - MAX_SEQUENCE_LENGTH);
+        }
+        return repairedPos;
+    }
+
+    /**
+     * Append a single space unless the buffer already ends with one.
+     *
+     * @return true if the space was omitted
+     */
+    private static boolean appendWhitespace(StringBuilder sb)
+    {
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ') {
+            return true;
+        }
+        sb.append(' ');
+        return false;
+    }
+
+    private static boolean endsWith(StringBuilder sb, int end, String suffix)
+    {
+        final int start = end - suffix.length();
+        if (start < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); ++i) {
+            if (sb.charAt(start + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Equivalent to regular expression character class <tt>[ \s]</tt>.
+     */
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == '\u00a0';
+    }
+
+    /**
+     * Equivalent to regular expression character class <tt>\w</tt>.
+     */
+    private static boolean isWordChar(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Character trie node with children sorted by key.
+     */
+    private static class TrieNode
+    {
+        private char[] mKeys = new char[0];
+        private TrieNode[] mChildren = new TrieNode[0];
+        private String mValue = null;
+        private int mDepth = 0;
+
+        private TrieNode get(char key)
+        {
+            final int pos = Arrays.binarySearch(mKeys, key);
+            return pos >= 0 ? mChildren[pos] : null;
+        }
+
+        private void putIfAbsent(String sequence, String value)
+        {
+            TrieNode node = this;
+            for (int i = 0; i < sequence.length(); ++i) {
+                final char key = sequence.charAt(i);
+                int pos = Arrays.binarySearch(node.mKeys, key);
+                if (pos < 0) {
+                    pos = -pos - 1;
+                    final char[] keys = new char[node.mKeys.length + 1];
+                    final TrieNode[] children = new TrieNode[node.mChildren.length + 1];
+                    System.arraycopy(node.mKeys, 0, keys, 0, pos);
+                    System.arraycopy(node.mChildren, 0, children, 0, pos);
+                    System.arraycopy(node.mKeys, pos, keys, pos + 1, node.mKeys.length - pos);
+                    System.arraycopy(node.mChildren, pos, children, pos + 1, node.mChildren.length - pos);
+                    keys[pos] = key;
+                    children[pos] = new TrieNode();
+                    children[pos].mDepth = i + 1;
+                    node.mKeys = keys;
+                    node.mChildren = children;
+                }
+                node = node.mChildren[pos];
+            }
+            if (null == node.mValue) {
+                node.mValue = value;
+            }
+        }
+    }
 }
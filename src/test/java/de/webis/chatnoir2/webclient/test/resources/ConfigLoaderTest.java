@@ -0,0 +1,79 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.webclient.test.resources;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import de.webis.chatnoir2.webclient.resources.ConfigLoader;
+
+public class ConfigLoaderTest
+{
+    private static ConfigLoader.Config getConfig() throws Exception
+    {
+        return ConfigLoader.getInstance().getConfig();
+    }
+
+    @Test
+    public void testDottedPaths() throws Exception
+    {
+        final ConfigLoader.Config conf = getConfig();
+        assertThat(conf.getBoolean("search.fan_out.enabled", true), is(false));
+        assertThat(conf.getLong("search.fan_out.timeout"), is(10000L));
+        assertThat(conf.get("search").get("fan_out").getLong("timeout"), is(10000L));
+        assertThat(conf.get("search.fan_out"), is(sameInstance(conf.get("search").get("fan_out"))));
+    }
+
+    @Test
+    public void testMissingDirectives() throws Exception
+    {
+        final ConfigLoader.Config conf = getConfig();
+        assertFalse(conf.contains("search.does_not_exist"));
+        assertFalse(conf.contains("does_not_exist.at_all"));
+        assertThat(conf.getString("does_not_exist.at_all", "default"), is("default"));
+        assertThat(conf.getBoolean("does_not_exist.at_all", true), is(true));
+        assertThat(conf.getLong("does_not_exist.at_all", 42L), is(42L));
+        assertThat(conf.getArray("does_not_exist.at_all").length, is(0));
+        assertThat(conf.getStringArray("does_not_exist.at_all").length, is(0));
+    }
+
+    @Test
+    public void testArrays() throws Exception
+    {
+        final ConfigLoader.Config conf = getConfig();
+        final ConfigLoader.Config[] aliases = conf.getArray("cluster.index_aliases");
+        assertThat(aliases.length, is(1));
+        assertThat(aliases[0].getString("alias"), is("index1"));
+        assertThat(conf.getArray("cluster.index_aliases")[0], is(sameInstance(aliases[0])));
+
+        final String[] hosts = conf.getStringArray("cluster.hosts");
+        assertThat(hosts, is(new String[]{"localhost"}));
+        hosts[0] = "modified";
+        assertThat(conf.getStringArray("cluster.hosts")[0], is("localhost"));
+    }
+}
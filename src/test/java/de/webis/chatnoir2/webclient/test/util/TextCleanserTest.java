@@ -0,0 +1,82 @@
+/*
+ * ChatNoir 2 Web Frontend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.webclient.test.util;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+import de.webis.chatnoir2.webclient.util.TextCleanser;
+
+public class TextCleanserTest
+{
+    @Test
+    public void testEncodingErrors()
+    {
+        assertThat(new TextCleanser("GrÃ¶\u00c3\u009fe", false).encodingErrors().get(), is("Größe"));
+        assertThat(new TextCleanser("\u00e2\u0080\u009cQuote\u00e2\u0080\u009d", false).encodingErrors().get(), is("“Quote”"));
+        assertThat(new TextCleanser("Ã\u00a1rbol Ã\u0083Â© Ã\u0083Â\u00a9", false).encodingErrors().get(), is("árbol é é"));
+        assertThat(new TextCleanser("a\ufffdb", false).encodingErrors().get(), is("ab"));
+        assertThat(new TextCleanser("Ãx", false).encodingErrors().get(), is("Ãx"));
+    }
+
+    @Test
+    public void testDoubleHtmlEscape()
+    {
+        assertThat(new TextCleanser("&amp;lt;b&amp;gt; &amp;amp;lt;", true).doubleHtmlEscape().get(),
+                is("&lt;b&gt; &amp;lt;"));
+        assertThat(new TextCleanser("&amp;abcdefghi; &amp;;", true).doubleHtmlEscape().get(),
+                is("&amp;abcdefghi; &amp;;"));
+    }
+
+    @Test
+    public void testWhitespace()
+    {
+        assertThat(new TextCleanser("a \t\n b\u00a0 c", false).whitespace().get(), is("a b c"));
+        assertThat(new TextCleanser("a &nbsp; b&nbsp;c", false).whitespace().get(), is("a &nbsp; b&nbsp;c"));
+        assertThat(new TextCleanser("a &nbsp; b&amp;nbsp;c", true).whitespace().get(), is("a b&amp;nbsp;c"));
+    }
+
+    @Test
+    public void testCleanseAll()
+    {
+        assertThat(TextCleanser.cleanseAll("  Ã\u0084rger  &amp;amp;  mit\n\nder Post (bla", true),
+                is("Ärger &amp; mit der Post"));
+        assertThat(TextCleanser.cleanseAll("a&amp;nbsp;&nbsp; b", true), is("a b"));
+    }
+
+    @Test
+    public void testCleanseAllWhitespaceLast()
+    {
+        // white space is collapsed only after unclosed brackets and repeated words were removed
+        assertThat(TextCleanser.cleanseAll("[\nfoo", true), is("[ foo"));
+        assertThat(TextCleanser.cleanseAll("[x&nbsp;b&amp; Ã¤", true), is("[x b&amp; ä"));
+        assertThat(TextCleanser.cleanseAll("ybarÃ\u0083Â©&amp;(b&nbsp;Word", true), is("ybaré&amp;(b Word"));
+        assertThat(TextCleanser.cleanseAll("foo (a\n\n\n\n\n\n\n\n\nb", false), is("foo (a b"));
+        assertThat(TextCleanser.cleanseAll("foo a\naa", false), is("foo a aa"));
+        assertThat(TextCleanser.cleanseAll("la&nbsp;la&nbsp;la", true), is("la la la"));
+    }
+}